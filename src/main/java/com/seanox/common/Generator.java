@@ -20,14 +20,74 @@
  */
 package com.seanox.common;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.AbstractMap;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
 /**
  * Generator, generates data by filling placeholders (tags) in a template/model.
@@ -37,12 +97,14 @@ import java.util.stream.Collectors;
  * <br>
  * The generator worked at byte level.<br>
  * Values are therefore expected to be prim&auml;r as byte arrays. All other
- * data types are converted using {@code String.valueOf(value).getBytes()}.<br>
+ * data types are converted using {@code String.valueOf(value)} and encoded
+ * with the charset of the template (see {@link Template#parse(byte[], Charset,
+ * Map)}), by default the charset of the platform.<br>
  * <br>
  * Placeholders can also be used as segments.<br>
- * Segments are partial structures that can be nested up to a depth of 65535
- * levels. These substructures can be used and filled globally or by segment
- * name dedicted/partially.<br>
+ * Segments are partial structures that can be nested without a fixed limit
+ * of levels. These substructures can be used and filled globally or by
+ * segment name dedicted/partially.<br>
  * The placeholders of segments remain after filling and can be reused
  * iteratively.<br>
  * The data types {@link Collection} and {@link Map} are expected as values for
@@ -50,8 +112,26 @@ import java.util.stream.Collectors;
  * the segment. A {@link Collection} causes to an iteration over a set of
  * {@link Map} and is comparable to the iterative call of the method
  * {@link #set(String, Map)}.<br>
+ * Instead of a {@link Collection}, any {@link Iterable}, {@link Iterator} or
+ * {@link Stream} can be used. The rows are then rendered lazily when they are
+ * pulled, so that e.g. database cursors do not have to be materialized.
+ * Iterators and streams can only be consumed once, streams are closed after
+ * consumption. Large lists with random access can optionally be rendered in
+ * parallel (see {@link #parallelize(int)}).<br>
  * Both {@link Map} and {@link Collection} create deep, complex, possibly
- * repetitive and recursive structures.
+ * repetitive and recursive structures.<br>
+ * Values can also be provided lazily as {@link Supplier} or {@link Callable}.
+ * These are only evaluated if the placeholder is used in the model or segment
+ * to be filled and then only once per filling. Which placeholders a model or
+ * segment uses can be determined with {@link Template#placeholders(String)}.<br>
+ * For frequent filling, e.g. per row of a table, the values can be passed as
+ * reusable {@link Binding}, which assigns the values directly to the slots of
+ * the placeholder names and thus avoids the normalization of the keys.<br>
+ * Instead of a {@link Map}, objects (beans) can also be used as values, e.g.
+ * as rows of a table. The placeholders are then resolved by the getters and
+ * fields of the object, which are determined once per class. Objects of
+ * classes of Java itself ({@code java.*}) are not used as beans and are
+ * rejected as values.
  *
  * <h3>Description of the syntax</h3>
  * The syntax of the placeholders is case-insensitive, must begin with a letter
@@ -70,6 +150,18 @@ import java.util.stream.Collectors;
  *   </tr>
  *   <tr>
  *     <td valign="top" nowrap="nowrap">
+ *       {@code #[value:encoder]}
+ *     </td>
+ *     <td valign="top">
+ *       Inserts the value for &lt;value&gt; encoded with the specified encoder
+ *       (e.g. {@code html}, {@code xml}, {@code json}, {@code url}) and
+ *       removes the placeholder. The value is encoded in one pass while it is
+ *       written. Placeholders with unknown encoders are invalid (see
+ *       {@link Encoder} and {@link Template#parse(byte[], Map)}).
+ *     </td>
+ *   </tr>
+ *   <tr>
+ *     <td valign="top" nowrap="nowrap">
  *       {@code #[scope[[...]]]}
  *     </td>
  *     <td valign="top">
@@ -98,6 +190,10 @@ import java.util.stream.Collectors;
  * the segments (partial templates) are determined and replaced by a simple
  * placeholder. After parsing, a final model with optimized placeholders and
  * extracted segments is created, which cannot be changed at runtime.<br>
+ * The final model is compiled into a flat list of instructions (literal byte
+ * spans, placeholders, scope references and pre-decoded constants), so that
+ * filling and rendering only walk through this list and the model is never
+ * scanned again.<br>
  * <br>
  * For the use of the model different possibilities are then available.<br>
  * <br>
@@ -117,7 +213,37 @@ import java.util.stream.Collectors;
  * exclusive segments (subtemplates), which are partially filled and prepared.
  * Both methods produce final results that correspond to the call of
  * {@link #set(Map)} in combination with {@link #extract()}, but focus on only
- * one segment.<br>
+ * one segment. With a {@link Memo}, the results of
+ * {@link #extract(String, Object)} are cached for recurring values.<br>
+ * <br>
+ * The methods {@link #render(OutputStream, Map)} and
+ * {@link #render(OutputStream, String, Map)} produce the same results, but
+ * write them directly into a data stream without creating the complete output
+ * in memory first. Alternatively, the output can be written into a channel
+ * ({@link java.nio.channels.WritableByteChannel}) or a buffer
+ * ({@link java.nio.ByteBuffer}), or asynchronously in chunks into a channel
+ * ({@link java.nio.channels.AsynchronousByteChannel}). With a pool of
+ * {@link Buffers}, outputs are created in reused buffers. The templates keep
+ * a moving estimate of the output size of the model and of each segment.
+ * {@link Template#metrics()} enables the metrics of a template, which can be
+ * queried as snapshot or via JMX. Values are converted with the
+ * {@link Converter} registered for their type, integers are written without
+ * intermediate strings, otherwise {@link String#valueOf(Object)} is used.<br>
+ * For repeated rendering with mostly unchanged values, {@link #incremental()}
+ * only renders the placeholders and segments whose values have changed and
+ * determines the changed regions of the output.<br>
+ * <br>
+ * The compiled model is an immutable {@link Template}, which can be shared by
+ * any number of threads. A generator only contains the current filling and is
+ * created by {@link Template#generator()} with little effort, e.g. per request
+ * or per thread. Generators themselves are not thread-safe, but
+ * {@link #fork()} creates copies of a prepared filling cheaply.<br>
+ * Templates from files can be held in a {@link Cache}, which reloads changed
+ * files and removes the least recently used templates. Templates can also be
+ * parsed directly from memory-mapped files, then the literals are not copied
+ * into the heap. Compiled templates can be written in a compact binary format
+ * and loaded again at startup without scanning the sources (see
+ * {@link Template#load(Path, Path, Charset, Map)}).<br>
  * <br>
  * Generator 5.2.1 20200514<br>
  * Copyright (C) 2019 Seanox Software Solutions<br>
@@ -129,15 +255,39 @@ import java.util.stream.Collectors;
 @SuppressWarnings({"unchecked", "rawtypes"})
 public class Generator {
 
-    /** Segments of the template */
-    private HashMap<String, Object> scopes;
+    /** Compiled template (immutable) */
+    private final Template template;
+
+    /** Generator of the enclosing model when rendering a segment */
+    private Generator outer;
+    
+    /** Segment that is rendered, {@code null} for the model */
+    private String scope;
+    
+    /** Filled segments that are not yet inserted into the model */
+    private Map<String, Assembly> appends;
 
-    /** Model, data buffer of the template */
-    private byte[] model;
+    /** Model, compiled instructions with the current filling */
+    private Instruction[] model;
+    
+    /** Minimum number of rows for parallel rendering (0 = disabled) */
+    private int threshold;
+    
+    /** Pool for parallel rendering */
+    private ForkJoinPool pool;
+    
+    /** Cache of extracted segments (optional) */
+    private Memo memo;
 
-    /** Constructor, create an empty generator. */
-    private Generator() {
-        this.scopes = new HashMap<>();
+    /**
+     * Constructor, creates a new generator with its own filling based on a
+     * compiled template.
+     * @param template compiled template
+     */
+    private Generator(Template template) {
+        
+        this.template = template;
+        this.model    = template.model;
     }
 
     /**
@@ -146,353 +296,666 @@ public class Generator {
      * @return the generator with the template passed as bytes
      */
     public static Generator parse(byte[] model) {
-        
-        Generator generator = new Generator();
-        generator.model = generator.scan(model);
-        return generator;
+        return Template.parse(model).generator();
     }
     
     /**
-     * Determines whether a valid placeholder starts at the specified position
-     * in a model (fragment). In this case the length of the complete
-     * placeholder is returned. If no placeholder can be determined, the length
-     * 0 is returned. If no further data is available in the model for analysis
-     * (end of data is reached) a negative value is returned.
-     * @param  model  Model(Fragmet)
-     * @param  cursor Position
-     * @return the position of the next placeholder or segment, otherwise a
-     *         negative value
+     * Creates a new generator based on the transferred template with
+     * additional encoders for the placeholders (see
+     * {@link Template#parse(byte[], Map)}).
+     * @param  model    Template as bytes
+     * @param  encoders Encoders by name
+     * @return the generator with the template passed as bytes
      */
-    private static int scan(byte[] model, int cursor) {
-        
-        if (model == null
-                || cursor >= model.length)
-            return -1;        
-
-        //Phase 0: Identification of a placeholder
-        //  - supported formats: #[...], #[...[[...]]]
-        //  - characteristic are the first two characters
-        //  - all placeholders begin with #[...
-        if (cursor +1 >= model.length
-                || model[cursor] != '#'
-                || model[cursor +1] != '[')
-            return 0;
-            
-        int offset = cursor;
-        int deep   = 0;
-
-        int[] stack = new int[65535];
-        while (cursor < model.length) {
-
-            //The current level is determined.
-            int level = 0;
-            if (deep > 0)
-                level = stack[deep];
-
-            //Phase 1: Recognition of the start of a placeholder
-            //  - supported formats: #[...], #[...[[...]]]
-            //  - characteristic are the first two characters
-            //  - all placeholders begin with #[...
-            //A placeholder can only begin if no stack and therefore no
-            //placeholder exists or if a segment placeholder has been determined
-            //before. In both cases the level is not equal to 1 and another
-            //stack with level 1 starts.
-            if (cursor +1 < model.length
-                    && model[cursor] == '#'
-                    && model[cursor +1] == '['
-                    && level != 1) {
-                stack[++deep] = 1;
-                cursor += 2;
-                continue;
-            }
-            
-            //Phase 1A: Qualification of a segment placeholder
-            //  - active level 1 is expected
-            //  - character string [[ is found
-            //The current stack is set to level 2.
-            if (cursor +1 < model.length
-                    && model[cursor] == '['
-                    && model[cursor +1] == '['
-                    && level == 1) {
-                stack[deep] = 2;
-                cursor += 2;
-                continue;
-            }
-
-            //Phase 2: Detecting the end of a detected placeholder
-            //The level must be 1 and the character [ must be found.
-            //Then the current stack is removed, because the search is finished
-            //here.
-            if (model[cursor] == ']'
-                    && level == 1) {
-                if (--deep  <= 0)
-                    break;
-                cursor += 1;
-                continue;
-            }
-
-            //Phase 2A: Detecting the end of a detected placeholder
-            //The level must be 1 and the character [ must be found.
-            //Then the current stack is removed, because the search here is
-            //completed.
-            if (cursor +2 < model.length
-                    && model[cursor +0] == ']'
-                    && model[cursor +1] == ']'
-                    && model[cursor +2] == ']'
-                    && level == 2) {
-                cursor += 2;
-                if (--deep <= 0)
-                    break;
-                cursor += 1;
-                continue;
-            }
-            
-            cursor++;
-        }
-        
-        //Case 1: The stack is not empty
-        //Thus, a placeholder was detected which is not completed.
-        //The scan is hungry and assumes an incomplete placeholder.
-        //Therefore the offset from start position to the end is from the model.
-        if (deep > 0)
-            return model.length -offset;
-        
-        //Case 2: The stack is empty
-        //The placeholder was determined completely and the offset corresponds
-        //to the length of the complete placeholder with possibly contained
-        //segments.
-        return cursor -offset +1;
+    public static Generator parse(byte[] model, Map<String, Encoder> encoders) {
+        return Template.parse(model, encoders).generator();
     }
-
+    
+    /**
+     * Creates a new generator based on the transferred template with a
+     * charset for the values and additional encoders for the placeholders
+     * (see {@link Template#parse(byte[], Charset, Map)}).
+     * @param  model    Template as bytes
+     * @param  charset  Charset of the values
+     * @param  encoders Encoders by name (optional)
+     * @return the generator with the template passed as bytes
+     */
+    public static Generator parse(byte[] model, Charset charset, Map<String, Encoder> encoders) {
+        return Template.parse(model, charset, encoders).generator();
+    }
+    
+    /**
+     * Creates a new generator based on a template file, which is mapped into
+     * memory (see {@link Template#parse(Path, Charset, Map)}).
+     * @param  path     Path of the template file
+     * @param  charset  Charset of the values (optional)
+     * @param  encoders Encoders by name (optional)
+     * @return the generator with the template of the file
+     * @throws IOException
+     *     In case of faulty access to the file
+     */
+    public static Generator parse(Path path, Charset charset, Map<String, Encoder> encoders)
+            throws IOException {
+        return Template.parse(path, charset, encoders).generator();
+    }
+    
     /**
      * Analyzes the model and prepares it for final processing.
      * All placeholders are checked for syntactic correctness. Invalid
      * placeholders are removed if necessary. In addition, the scopes with the
      * segments (partial templates) are determined and replaced by a simple
      * placeholder. After parsing, a final model with optimized placeholders and
-     * extracted segments is created, which cannot be changed at runtime.
-     * @param  model Model
-     * @return the final prepared model
+     * extracted segments is compiled into instructions, which cannot be
+     * changed at runtime. Literals and segments are only referenced as byte
+     * spans of the model and are not copied.
+     * @param  lexer    Lexer of the model
+     * @param  offset   start of the model (fragment)
+     * @param  limit    end of the model (fragment)
+     * @param  scopes   Segments as compiled instructions (are registered)
+     * @param  encoders Encoders available for placeholders
+     * @return the final prepared model as compiled instructions
      */
-    private byte[] scan(byte[] model) {
+    private static Instruction[] scan(Lexer lexer, int offset, int limit,
+            Map<String, Instruction[]> scopes, Map<String, Encoder> encoders) {
         
-        if (model == null)
-            return new byte[0];
+        ByteBuffer model = lexer.model;
+        List<Instruction> instructions = new ArrayList<>();
         
-        int cursor = 0;
-        while (true) {
-            int offset = Generator.scan(model, cursor++);
-            if (offset < 0)
-                break;
-            if (offset == 0)
-                continue;
-                
-            cursor--;            
+        int cursor = offset;
+        while ((cursor = lexer.locate(cursor, limit)) >= 0) {
+            
+            int length = lexer.measure(cursor, limit);
+            int end    = cursor +length;
 
-            byte[] patch = new byte[0];
-            String fetch = new String(model, cursor, offset);
-            if (fetch.matches("^(?si)#\\[[a-z]([\\w\\-]*\\w)*\\[\\[.*\\]\\]\\]$")) {
+            //the literal before the placeholder is referenced as a byte span
+            if (cursor > offset)
+                instructions.add(Instruction.literal(model, offset, cursor -offset));
+            
+            int name = Lexer.identify(model, cursor +2, end);
+            if (name > 0
+                    && name +1 < end
+                    && model.get(name) == '['
+                    && model.get(name +1) == '['
+                    && end -name -2 >= 3
+                    && model.get(end -3) == ']'
+                    && model.get(end -2) == ']'
+                    && model.get(end -1) == ']') {
                 
                 //scope is determined from: #[scope[[segment]]
-                String scope = fetch.substring(2);
-                scope = scope.substring(0, scope.indexOf('['));
+                String scope = lexer.text(cursor +2, name -cursor -2);
                 scope = scope.toLowerCase();
                 
-                //segment is extracted from the model
-                byte[] cache = new byte[offset -scope.length() -7];
-                System.arraycopy(model, cursor +scope.length() +4, cache, 0, cache.length);
-                
-                //scope is registered with the segment if scope does not exist
-                if (!this.scopes.containsKey(scope))
-                    this.scopes.put(scope, this.scan(cache));
+                //scope is registered with the segment if scope does not exist,
+                //the segment is compiled directly from the model
+                if (!scopes.containsKey(scope))
+                    scopes.put(scope, Generator.scan(lexer, name +2, end -3, scopes, encoders));
                 
                 //as new placeholder only the scope is used
-                patch = ("#[").concat(scope).concat("]").getBytes();
-            } else if (fetch.matches("^(?i)#\\[[a-z]([\\w-]*\\w)*\\]$")) {
-                patch = fetch.toLowerCase().getBytes();
-            } else if (fetch.matches("^(?i)#\\[0x([0-9a-f]{2})+\\]$")) {
-                cursor += fetch.length() +1;
-                continue;
+                instructions.add(Instruction.placeholder(scope, null, null));
+            } else if (name > 0
+                    && name +1 == end
+                    && model.get(name) == ']') {
+                String fetch = lexer.text(cursor +2, name -cursor -2);
+                instructions.add(Instruction.placeholder(fetch.toLowerCase(), null, null));
+            } else if (name > 0
+                    && name +1 < end
+                    && model.get(name) == ':'
+                    && model.get(end -1) == ']'
+                    && Lexer.identify(model, name +1, end) == end -1) {
+                
+                //placeholder with encoder: #[value:encoder]
+                //Unknown encoders make the placeholder invalid, so that values
+                //are never inserted unencoded by mistake.
+                String fetch = lexer.text(cursor +2, name -cursor -2);
+                String encoding = lexer.text(name +1, end -name -2);
+                encoding = encoding.toLowerCase();
+                Encoder encoder = encoders.get(encoding);
+                if (encoder != null)
+                    instructions.add(Instruction.placeholder(fetch.toLowerCase(), encoding, encoder));
+            } else if (Lexer.isConstant(model, cursor, end)) {
+                
+                //hexadecimal code is converted into bytes
+                byte[] patch = new byte[(length -5) /2];
+                for (int index = 0, digit = cursor +4; index < patch.length; index++, digit += 2)
+                    patch[index] = (byte)((Character.digit(model.get(digit), 16) << 4)
+                            | Character.digit(model.get(digit +1), 16));
+                instructions.add(Instruction.constant(patch));
             }
             
-            //model is rebuilt with the patch
-            byte[] cache = new byte[model.length -offset +patch.length];
-            System.arraycopy(model, 0, cache, 0, cursor);
-            System.arraycopy(patch, 0, cache, cursor, patch.length);
-            System.arraycopy(model, cursor +offset, cache, cursor +patch.length, model.length -cursor -offset);
-            model = cache;
-            
-            cursor += patch.length;
+            cursor = end;
+            offset = cursor;
         }
         
-        return model;
+        if (offset < limit)
+            instructions.add(Instruction.literal(model, offset, limit -offset));
+        
+        return instructions.toArray(new Instruction[0]);
     }
     
     /**
-     * Fills the current model with the transferred values.
-     * Optionally, the filling can be limited to one segment by specifying a
-     * scope and/or {@code clean} can be used to specify whether the return
-     * value should be finalized and all outstanding placeholders removed or
-     * resolved.
-     * @param  scope  Scope or segment
-     * @param  values Values
-     * @param  clean  {@code true} for final cleanup
-     * @return the filled model (fragment)
-     */    
-    private byte[] assemble(String scope, Map<String, Object> values, boolean clean) {
+     * Marks the placeholders of compiled instructions whose names occur
+     * several times in the list. Values that can only be consumed once
+     * (iterators, streams) are then rendered only once for all occurrences,
+     * all others are written directly into the output.
+     * @param  instructions compiled instructions
+     * @return the marked instructions
+     */
+    private static Instruction[] repeat(Instruction[] instructions) {
         
-        Object object;
-        String fetch;
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (Instruction instruction : instructions)
+            if (instruction.name != null)
+                occurrences.merge(instruction.name, Integer.valueOf(1), Integer::sum);
+        for (int index = 0; index < instructions.length; index++)
+            if (instructions[index].name != null
+                    && occurrences.get(instructions[index].name).intValue() > 1)
+                instructions[index] = Instruction.repeat(instructions[index]);
+        return instructions;
+    }
+    
+    /**
+     * Qualifies the placeholders of compiled instructions. Placeholders whose
+     * names correspond to a scope become scope references and all
+     * placeholders are bound to the slot of their name. Slots that do not
+     * exist yet are registered.
+     * @param  instructions compiled instructions
+     * @param  scopes       Segments as compiled instructions
+     * @param  slots        Slots of the placeholder names (are registered)
+     * @return the qualified instructions
+     */
+    private static Instruction[] qualify(Instruction[] instructions,
+            Map<String, Instruction[]> scopes, Map<String, Integer> slots) {
         
-        byte[] cache;
-        byte[] model;
-        byte[] patch;
-
-        if (this.model == null)
-            return new byte[0];
+        for (int index = 0; index < instructions.length; index++) {
+            Instruction instruction = instructions[index];
+            if (instruction.type != Instruction.Type.VALUE)
+                continue;
+            Integer slot = slots.get(instruction.name);
+            if (slot == null) {
+                slot = Integer.valueOf(slots.size());
+                slots.put(instruction.name, slot);
+            }
+            instructions[index] = Instruction.qualify(instruction,
+                    scopes.containsKey(instruction.name), slot.intValue());
+        }
+        return instructions;
+    }
+    
+    /**
+     * Normalization of the values (lower case + smoothing of the keys).
+     * The values are assigned to the slots of the template, keys without
+     * placeholder are ignored. Values of a {@link Binding} of the same
+     * template (or of a template with the same slots) are used directly and
+     * are only copied if they contain lazy values. For objects (beans), the values of the fields and getters
+     * whose names correspond to a placeholder of the model or segment are
+     * used, so that getters are only called when they are needed. Other
+     * objects (e.g. of classes of Java itself) are not supported.
+     * @param  template Template
+     * @param  scope    Segment, {@code null} for the model
+     * @param  values   Values or object (bean)
+     * @return the normalized values as slots
+     * @throws IllegalArgumentException
+     *     In case of values that are neither map nor object (bean)
+     */
+    private static Object[] normalize(Template template, String scope, Object values) {
+        
+        if (values instanceof Binding
+                && ((Binding)values).template.slots == template.slots) {
+            Object[] slots = ((Binding)values).values;
+            for (Object value : slots)
+                if (value instanceof Supplier
+                        || value instanceof Callable)
+                    return slots.clone();
+            return slots;
+        }
 
-        //Normalization of the values (lower case + smoothing of the keys)
+        Object[] slots = new Object[template.slots.size()];
         if (values == null)
-            values = new HashMap<>();
-        values = values.entrySet().stream().collect(
-                Collectors.toMap(
-                        (entry) -> entry.getKey().toLowerCase().trim(),
-                        (entry) -> entry.getValue(),
-                        (existing, value) -> value));
+            return slots;
+        if (values instanceof Map) {
+            for (Map.Entry<String, Object> entry : ((Map<String, Object>)values).entrySet()) {
+                Integer slot = template.slots.get(entry.getKey().toLowerCase().trim());
+                if (slot != null)
+                    slots[slot.intValue()] = entry.getValue();
+            }
+            return slots;
+        }
+        
+        if (!Property.isBean(values))
+            throw new IllegalArgumentException("Unsupported values: " + values.getClass().getName());
+        
+        //The properties are determined once per class. Only the properties
+        //used in the model or segment are read.
+        int[] references = template.references(scope);
+        for (Map.Entry<String, Property> entry : Property.PROPERTIES.get(values.getClass()).entrySet()) {
+            Integer slot = template.slots.get(entry.getKey());
+            if (slot != null
+                    && Arrays.binarySearch(references, slot.intValue()) >= 0)
+                slots[slot.intValue()] = entry.getValue().get(values);
+        }
+        return slots;
+    }
+    
+    /**
+     * Evaluates a lazy value ({@link Supplier}, {@link Callable}).
+     * Other values are returned unchanged.
+     * @param  value value
+     * @return the evaluated value
+     */
+    private static Object evaluate(Object value) {
+        
+        if (value instanceof Supplier)
+            return ((Supplier)value).get();
+        if (!(value instanceof Callable))
+            return value;
+        try {return ((Callable)value).call();
+        } catch (RuntimeException exception) {
+            throw exception;
+        } catch (Exception exception) {
+            throw new RuntimeException(exception);
+        }
+    }
+    
+    /**
+     * Determines the value of a placeholder from the normalized values. Lazy
+     * values are evaluated at the first use and replaced by the result, so
+     * that they are evaluated only once per filling.
+     * @param  values normalized values
+     * @param  slot   slot of the placeholder
+     * @return the value of the placeholder, otherwise {@code null}
+     */
+    private static Object resolve(Object[] values, int slot) {
+        
+        Object value = values[slot];
+        if (value instanceof Supplier
+                || value instanceof Callable) {
+            value = Generator.evaluate(value);
+            values[slot] = value;
+        }
+        return value;
+    }
+    
+    /**
+     * Fills the current model with the transferred values.
+     * Optionally, the filling can be limited to one segment by specifying a
+     * scope. Placeholders without value and the placeholders of the scopes
+     * are retained for reuse. The filled segments are collected per scope
+     * and are only inserted into the model when it is used next (see
+     * {@link #splice()}), so that repeated filling of a segment only costs
+     * the rendering of the segment.
+     * @param scope  Scope or segment
+     * @param values Values or object (bean)
+     */    
+    private void assemble(String scope, Object values) {
+        
+        Object[] slots = Generator.normalize(this.template, scope, values);
         
         //Optionally the scope is determined.
         if (scope != null) {
             scope = scope.toLowerCase().trim();
 
             //If one is specified that does not exist, nothing is to be done.
-            if (!this.scopes.containsKey(scope))
-                return this.model;
+            if (!this.available(scope))
+                return;
             
-            //Scopes are prepared independently and later processed like a
-            //simple but exclusive placeholder.
-            patch = this.extract(scope, values);
+            //Scopes are prepared independently and appended to the already
+            //filled content of the scope.
+            if (this.appends == null)
+                this.appends = new HashMap<>();
+            Assembly assembly = this.appends.get(scope);
+            if (assembly == null) {
+                assembly = new Assembly();
+                this.appends.put(scope, assembly);
+            }
             
-            values.clear();
-            values.put(scope, patch);
+            //The filled segment is only inserted later, so the bytes of the
+            //values must be copied, they can be changed by the caller.
+            this.extract(scope, slots, new Retention(assembly));
+            return;
         }
         
-        int cursor = 0;
-        while (true) {
-            int offset = Generator.scan(this.model, cursor++);
-            if (offset < 0)
-                break;
-            if (offset == 0)
+        this.splice();
+        this.patch(slots);
+    }
+    
+    /**
+     * Inserts the collected content of the filled segments into the model.
+     * The content is processed like a simple but exclusive placeholder and
+     * inserted before the placeholder of the scope, which is retained.
+     */
+    private void splice() {
+        
+        if (this.appends == null)
+            return;
+        Object[] slots = new Object[this.template.slots.size()];
+        for (Map.Entry<String, Assembly> entry : this.appends.entrySet())
+            slots[this.template.slots.get(entry.getKey()).intValue()] = entry.getValue().toByteArray();
+        this.appends = null;
+        this.patch(slots);
+    }
+    
+    /**
+     * Fills the current model with normalized values. Placeholders without
+     * value and the placeholders of the scopes are retained for reuse.
+     * @param slots normalized values
+     */
+    private void patch(Object[] slots) {
+        
+        //Values are only rendered once per placeholder name, because
+        //iterators and streams can only be consumed once.
+        Map<String, Instruction> patches = new HashMap<>();
+        
+        List<Instruction> model = new ArrayList<>(this.model.length);
+        for (Instruction instruction : this.model) {
+            
+            //literals, constants and the placeholders of not transmitted keys
+            //are retained, lazy values without result are treated like
+            //not transmitted keys
+            if (instruction.type == Instruction.Type.LITERAL
+                    || instruction.type == Instruction.Type.CONSTANT
+                    || Generator.resolve(slots, instruction.slot) == null) {
+                model.add(instruction);
                 continue;
-                
-            cursor--;
-
-            patch = new byte[0];
-            fetch = new String(this.model, cursor, offset);
-            if (fetch.matches("^(?i)#\\[[a-z]([\\w-]*\\w)*\\]$")) {
-                fetch = fetch.substring(2, fetch.length() -1);
-                
-                //the placeholders of not transmitted keys are ignored, with
-                //'clean' the placeholders are deleted
-                if (!values.containsKey(fetch)
-                        && !clean) {
-                    cursor += fetch.length() +3 +1;
-                    continue;
-                }
-                
-                //patch is determined by the key
-                object = values.get(fetch);
-
-                //If the key is a segment and the value is a map with values,
-                //the segment is filled recursively. To protect against infinite
-                //recursions, the current scope is removed from the value list.
-                //  e.g. #[A[[#[B[[#[A[[...]]...]]...]]
-                if (this.scopes.containsKey(fetch)
-                        && object instanceof Map) {
-                    patch = this.extract(fetch, (Map)object);
-                } else if (this.scopes.containsKey(fetch)
-                        && object instanceof Collection) {
-                    //Collections generates complex structures/tables through
-                    //deep, repetitive recursive generation.
-                    for (Object entry : ((Collection)object)) {
-                        if (entry instanceof Map) {
-                            model = this.extract(fetch, (Map)entry);
-                        } else if (entry instanceof byte[]) {
-                            model = (byte[])entry;
-                        } else if (entry != null) {
-                            model = String.valueOf(entry).getBytes();
-                        } else continue;
-                        cache = new byte[patch.length +model.length];
-                        System.arraycopy(patch, 0, cache, 0, patch.length);
-                        System.arraycopy(model, 0, cache, patch.length, model.length);
-                        patch = cache; 
-                    }
-                } else if (object instanceof byte[]) {
-                    patch = (byte[])object;
-                } else if (object != null) {
-                    patch = String.valueOf(object).getBytes();
-                }
-                
-                if (!clean) {
-                
-                    //if necessary the # characters are encoded to protect the
-                    //placeholders and structure in the model
-                    int index = 0;
-                    while (index < patch.length) {
-                        if (patch[index++] != '#')
-                            continue;
-                        cache = new byte[patch.length +6];
-                        System.arraycopy(patch, 0, cache, 0, index);
-                        System.arraycopy(("[0x23]").getBytes(), 0, cache, index, 6);
-                        System.arraycopy(patch, index, cache, index +6, patch.length -index);
-                        patch = cache;
-                    }
-                    
-                    if (this.scopes.containsKey(fetch)) {
-                        fetch = ("#[").concat(fetch).concat("]");
-                        cache = new byte[patch.length +fetch.length()];
-                        System.arraycopy(patch, 0, cache, 0, patch.length);
-                        System.arraycopy(fetch.getBytes(), 0, cache, patch.length, fetch.length());
-                        patch = cache;
-                    }
-                }
-                
-            } else if (fetch.matches("^(?i)#\\[0x([0-9a-f]{2})+\\]$")) {
-                
-                //Hexadecimal placeholders are only resolved with clean, because
-                //they can contain unwanted (control) characters, which hinders
-                //rendering.
-                if (!clean) {
-                    cursor += fetch.length() +1;
-                    continue;            
-                }
-                
-                //hexadecimal code is converted into bytes
-                fetch = fetch.substring(4, fetch.length() -1); 
-                fetch = ("ff").concat(fetch);
-                patch = new BigInteger(fetch, 16).toByteArray();
-                patch = Arrays.copyOfRange(patch, 2, patch.length);                
             }
             
-            //model is rebuilt with the patch
-            cache = new byte[this.model.length -offset +patch.length];
-            System.arraycopy(this.model, 0, cache, 0, cursor);
-            System.arraycopy(patch, 0, cache, cursor, patch.length);
-            System.arraycopy(this.model, cursor +offset, cache, cursor +patch.length, this.model.length -cursor -offset);
-            this.model = cache;
+            //The value is inserted as literal, so it cannot be interpreted as
+            //a placeholder and no further encoding is required. Placeholders
+            //with different encoders are rendered separately.
+            String key = instruction.name;
+            if (instruction.encoding != null)
+                key += ":" + instruction.encoding;
+            Instruction patch = patches.get(key);
+            if (patch == null) {
+                Assembly assembly = new Assembly();
+                this.assemble(instruction, Generator.resolve(slots, instruction.slot), assembly);
+                patch = Instruction.literal(assembly.toByteArray());
+                patches.put(key, patch);
+            }
+            if (patch.length > 0)
+                model.add(patch);
             
-            cursor += patch.length;
+            //the placeholder of segments/scopes is retained for reuse
+            if (this.available(instruction.name))
+                model.add(instruction);
         }
         
-        return this.model;
+        this.model = model.toArray(new Instruction[0]);
+    }
+    
+    /**
+     * Checks whether a segment is available. To protect against infinite
+     * recursions, segments are not available within themselves. For this
+     * purpose, the chain of the currently rendered segments is checked, whose
+     * length corresponds to the nesting depth, so that the segments of the
+     * template can be shared without copying.
+     *     e.g. #[A[[#[B[[#[A[[...]]...]]...]]
+     * @param  scope Segment
+     * @return {@code true} if the segment is available
+     */
+    private boolean available(String scope) {
+        
+        if (!this.template.scopes.containsKey(scope))
+            return false;
+        for (Generator generator = this; generator != null; generator = generator.outer)
+            if (scope.equals(generator.scope))
+                return false;
+        return true;
     }
+    
+    /**
+     * Writes the value of a placeholder into the output.
+     * If the placeholder is a segment and the value is a map with values, the
+     * segment is filled recursively. Collections, iterables, iterators and
+     * streams generates complex structures and tables through deep,
+     * repetitive recursive generation. The rows are rendered lazily in the
+     * order in which they are pulled. Rows are treated like values of the
+     * segment. Values that are not rendered as segment are written with the
+     * encoder of the placeholder, if one is specified.
+     * @param instruction placeholder
+     * @param object      value
+     * @param output      output
+     */
+    private void assemble(Instruction instruction, Object object, Output output) {
+
+        //lazy values (e.g. of rows) are evaluated only now
+        object = Generator.evaluate(object);
 
+        //To protect against infinite recursions, the current scope is not
+        //available in the segment (see available).
+        //  e.g. #[A[[#[B[[#[A[[...]]...]]...]]
+        boolean scope = instruction.type == Instruction.Type.SCOPE
+                && this.available(instruction.name);
+        if (scope
+                && object instanceof Map) {
+            this.extract(instruction.name, object, output);
+        } else if (scope
+                && object instanceof Stream) {
+            try (Stream stream = (Stream)object) {
+                this.assemble(instruction, stream.iterator(), output);
+            }
+        } else if (scope
+                && (object instanceof Iterable
+                        || object instanceof Iterator)) {
+            
+            //Large lists with random access can optionally be rendered in
+            //parallel, the rows are independent of each other.
+            if (this.threshold > 0
+                    && object instanceof List
+                    && object instanceof RandomAccess
+                    && ((List)object).size() >= this.threshold) {
+                List rows = (List)object;
+                int chunk = Math.max(1, rows.size() /(this.pool.getParallelism() *4));
+                this.pool.invoke(new Fork(this, instruction, rows, 0, rows.size(), chunk)).transfer(output);
+                Metrics metrics = this.template.metrics;
+                if (metrics != null)
+                    metrics.statistic(instruction.name).rows.add(rows.size());
+                return;
+            }
+            
+            Iterator iterator = object instanceof Iterator ? (Iterator)object
+                    : ((Iterable)object).iterator();
+            long rows = 0;
+            for (; iterator.hasNext(); rows++)
+                this.assemble(instruction, iterator.next(), output);
+            Metrics metrics = this.template.metrics;
+            if (metrics != null)
+                metrics.statistic(instruction.name).rows.add(rows);
+        } else if (scope
+                && Property.isBean(object)) {
+            this.extract(instruction.name, object, output);
+        } else if (object instanceof byte[]) {
+            Generator.encode(instruction, (byte[])object, output);
+        } else if (object != null) {
+            
+            //Values with a converter are written by the converter, with an
+            //encoder as an intermediate step.
+            Converter converter = this.template.converter(object.getClass());
+            if (converter != null
+                    && instruction.encoder != null) {
+                Assembly assembly = new Assembly();
+                converter.convert(object, this.template.charset, assembly);
+                Generator.encode(instruction, assembly.toByteArray(), output);
+            } else if (converter != null) {
+                converter.convert(object, this.template.charset, output);
+            } else if (instruction.encoder != null) {
+                Generator.encode(instruction, Transcoder.encode(String.valueOf(object), this.template.charset), output);
+            } else Transcoder.encode(String.valueOf(object), this.template.charset, output);
+        }
+    }
+    
+    /**
+     * Writes a value into the output. If the placeholder specifies an
+     * encoder, the value is encoded while it is written.
+     * @param instruction placeholder
+     * @param data        value
+     * @param output      output
+     */
+    private static void encode(Instruction instruction, byte[] data, Output output) {
+        
+        if (instruction.encoder != null)
+            instruction.encoder.encode(data, 0, data.length, output);
+        else output.append(data);
+    }
+    
+    /**
+     * Creates an independent view of a byte span of a buffer. The position
+     * and limit of the buffer itself are not changed.
+     * @param  buffer buffer
+     * @param  offset offset of the byte span
+     * @param  length length of the byte span
+     * @return the byte span as buffer
+     */
+    private static ByteBuffer slice(ByteBuffer buffer, int offset, int length) {
+        
+        ByteBuffer slice = buffer.duplicate();
+        slice.clear();
+        slice.position(offset);
+        slice.limit(offset +length);
+        return slice;
+    }
+    
+    /**
+     * Renders the current model with the transferred values into the output.
+     * All outstanding placeholders are resolved or removed and the constants
+     * are inserted.
+     * @param  values normalized values
+     * @param  output Output
+     * @return the number of placeholders without value
+     */
+    private int render(Object[] values, Output output) {
+        
+        int unresolved = 0;
+        Map<String, Assembly> outputs = null;
+        for (Instruction instruction : this.model) {
+            if (instruction.type == Instruction.Type.LITERAL
+                    || instruction.type == Instruction.Type.CONSTANT) {
+                instruction.write(output);
+                continue;
+            }
+            Object value = Generator.resolve(values, instruction.slot);
+            if (value == null) {
+                unresolved++;
+            } else if (instruction.repeated
+                    && (value instanceof Iterator
+                            || value instanceof Stream)) {
+                if (outputs == null)
+                    outputs = new HashMap<>();
+                this.assemble(instruction, value, output, outputs);
+            } else this.assemble(instruction, value, output);
+        }
+        return unresolved;
+    }
+    
+    /**
+     * Writes a value that can only be consumed once (iterator, stream) of a
+     * placeholder that occurs several times into the output. Like with the
+     * filling of the model (see patch), the value is rendered only once per
+     * placeholder name in a rendering pass, further occurrences reuse the
+     * output. Placeholders that occur only once are written directly, so
+     * that the rows are rendered lazily.
+     * @param instruction placeholder
+     * @param object      value
+     * @param output      output
+     * @param outputs     outputs of the rendering pass by placeholder
+     */
+    private void assemble(Instruction instruction, Object object, Output output, Map<String, Assembly> outputs) {
+        
+        Assembly assembly = outputs.get(instruction.name);
+        if (assembly == null) {
+            assembly = new Assembly();
+            this.assemble(instruction, object, assembly);
+            outputs.put(instruction.name, assembly);
+        }
+        assembly.transfer(output);
+    }
+    
+    /**
+     * Renders the model with the values into the output. If the metrics of
+     * the template are enabled, the rendering is recorded.
+     * @param values Values or object (bean)
+     * @param output Output
+     */
+    private void emit(Object values, Output output) {
+        
+        this.splice();
+        Metrics metrics = this.template.metrics;
+        if (metrics == null) {
+            this.render(Generator.normalize(this.template, null, values), output);
+            return;
+        }
+        
+        long time = System.nanoTime();
+        Meter meter = new Meter(output);
+        int unresolved = this.render(Generator.normalize(this.template, null, values), meter);
+        metrics.statistic(null).record(System.nanoTime() -time, meter.size, unresolved);
+    }
+    
     /**
      * Return all scopes of the segments as enumeration.
      * Free scopes (without segment) are not included.
      * @return all scopes of the segments as enumeration
      */
     public Enumeration<String> scopes() {
-        return Collections.enumeration(this.scopes.keySet());
+        return this.template.scopes();
+    }
+    
+    /**
+     * Returns the names of all placeholders that are still contained in the
+     * current filled model, including the placeholders of segments/scopes.
+     * The placeholders used within the segments are not included (see
+     * {@link Template#placeholders(String)}).
+     * @return the names of the placeholders as enumeration
+     */
+    public Enumeration<String> placeholders() {
+        this.splice();
+        return Generator.placeholders(this.model);
+    }
+    
+    /**
+     * Determines the names of the placeholders of compiled instructions in
+     * the order of their occurrence.
+     * @param  instructions compiled instructions
+     * @return the names of the placeholders as enumeration
+     */
+    private static Enumeration<String> placeholders(Instruction[] instructions) {
+        
+        Set<String> placeholders = new LinkedHashSet<>();
+        for (Instruction instruction : instructions)
+            if (instruction.name != null)
+                placeholders.add(instruction.name);
+        return Collections.enumeration(placeholders);
+    }
+    
+    /**
+     * Returns the compiled template on which the generator is based.
+     * @return the compiled template
+     */
+    public Template template() {
+        return this.template;
+    }
+    
+    /**
+     * Creates a copy of the generator with the current filling, e.g. as a
+     * prepared base per request. The copy shares the compiled template and
+     * the filled model with the generator without copying them. Both remain
+     * independent of each other, because filling never changes a model, but
+     * always creates a new one. Filled segments that are not yet inserted
+     * (see {@link #set(String, Map)}) are inserted into the model of the
+     * generator beforehand.
+     * @return the created copy of the generator
+     */
+    public Generator fork() {
+        
+        this.splice();
+
+        Generator generator = new Generator(this.template);
+        generator.outer     = this.outer;
+        generator.scope     = this.scope;
+        generator.model     = this.model;
+        generator.threshold = this.threshold;
+        generator.pool      = this.pool;
+        generator.memo      = this.memo;
+        return generator;
     }
 
     /**
@@ -500,7 +963,12 @@ public class Generator {
      * @return the currently filled template
      */
     public byte[] extract() {
-        return this.assemble(null, null, true).clone();
+        
+        Estimate estimate = this.template.estimator(null);
+        Assembly output = new Assembly(estimate.spans);
+        this.emit(null, output);
+        estimate.update(output);
+        return output.toByteArray();
     }
     
     /**
@@ -523,44 +991,4037 @@ public class Generator {
      *         array is returned
      */
     public byte[] extract(String scope, Map<String, Object> values) {
+        return this.extract(scope, (Object)values);
+    }
+    
+    /**
+     * Extracts a specified segment and sets the data of an object (bean)
+     * there. The placeholders are resolved by the fields and getters of the
+     * object. The data of the template are not affected by this.
+     * @param  scope  Segment
+     * @param  values Object with the values, alternatively a {@link Map}
+     * @return the filled segment, if this cannot be determined, an empty byte
+     *         array is returned
+     */
+    public byte[] extract(String scope, Object values) {
+        return this.extract(scope, values, true);
+    }
+    
+    /**
+     * Extracts a specified segment and sets the data of an object (bean) or
+     * a {@link Map} there (see {@link #extract(String, Object)}). With a
+     * cache of extracted segments (see {@link #memoize(Memo)}), the use of
+     * the cache can be skipped, e.g. for values known to be unique.
+     * @param  scope   Segment
+     * @param  values  Object with the values, alternatively a {@link Map}
+     * @param  memoize {@code false} skips the cache of extracted segments
+     * @return the filled segment, if this cannot be determined, an empty byte
+     *         array is returned
+     */
+    public byte[] extract(String scope, Object values, boolean memoize) {
         
         if (scope != null)
             scope = scope.toLowerCase().trim();
         if (scope == null
-                || !scope.matches("^[a-z]([\\w-]*\\w)*$"))
+                || !Lexer.isName(scope))
             return new byte[0];
         
-        //Internally, a copy of the generator is created for the segment
-        //(partial model) and thus partially filled.
-        Generator generator = new Generator();
-        generator.scopes = (HashMap)this.scopes.clone();
-        generator.scopes.remove(scope);
-        generator.model = (byte[])this.scopes.get(scope);
-        if (generator.model == null)
-            generator.model = new byte[0];
-        return generator.assemble(null, values, true);
+        Object[] slots = Generator.normalize(this.template, scope, values);
+        
+        //Segments are only cached if all the values used are immutable,
+        //otherwise the key is null.
+        Memo memo = memoize ? this.memo : null;
+        Memo.Key key = memo != null ? Memo.key(this.template, scope, slots) : null;
+        if (key != null) {
+            byte[] data = memo.get(key);
+            if (data != null)
+                return data.clone();
+        }
+        
+        Estimate estimate = this.template.estimator(scope);
+        Assembly output = new Assembly(estimate.spans);
+        this.extract(scope, slots, output);
+        estimate.update(output);
+        byte[] data = output.toByteArray();
+        if (key != null)
+            memo.put(key, data.clone());
+        return data;
     }
-
+    
     /**
-     * Sets the data for a scope or a segment.
-     * @param values Values
+     * Extracts a specified segment, sets the data there and writes the result
+     * into the output. The data of the template are not affected by this.
+     * @param scope  Segment
+     * @param values List of values or object (bean)
+     * @param output Output
      */
-    public void set(Map<String, Object> values) {
-        this.set(null, values);
+    private void extract(String scope, Object values, Output output) {
+        this.extract(scope, Generator.normalize(this.template, scope, values), output);
     }
-
+    
     /**
-     * Sets the data for a scope or a segment.
-     * @param scope  Scope or segment
-     * @param values Values
+     * Extracts a specified segment, sets the normalized data there and writes
+     * the result into the output. The data of the template are not affected
+     * by this.
+     * @param scope  Segment
+     * @param values normalized values
+     * @param output Output
      */
-    public void set(String scope, Map<String, Object> values) {
-
-        if (scope != null)
-            scope = scope.toLowerCase().trim();
-        if (scope != null
-                && !scope.matches("^[a-z]([\\w-]*\\w)*$"))
+    private void extract(String scope, Object[] values, Output output) {
+        
+        //Internally, a generator is created for the segment (partial model),
+        //which shares the segments of the template. The segment itself is
+        //excluded via the chain of the rendered segments (see available).
+        Generator generator = new Generator(this.template);
+        generator.threshold = this.threshold;
+        generator.pool = this.pool;
+        generator.outer = this;
+        generator.scope = scope;
+        generator.model = this.template.scopes.get(scope);
+        if (generator.model == null)
+            generator.model = new Instruction[0];
+        
+        Metrics metrics = this.template.metrics;
+        if (metrics == null) {
+            generator.render(values, output);
             return;
-        this.model = this.assemble(scope, values, false);
+        }
+        
+        long time = System.nanoTime();
+        Meter meter = new Meter(output);
+        int unresolved = generator.render(values, meter);
+        metrics.statistic(scope).record(System.nanoTime() -time, meter.size, unresolved);
+    }
+
+    /**
+     * Renders the currently filled template with the transferred values
+     * directly into a data stream. Literals and values are written in order
+     * without the output being created as a whole before. The data of the
+     * template are not affected by this.
+     * @param  output data stream
+     * @param  values Values
+     * @throws IOException
+     *     In case of faulty access to the data stream
+     */
+    public void render(OutputStream output, Map<String, Object> values)
+            throws IOException {
+        this.render(output, (Object)values);
+    }
+    
+    /**
+     * Renders the currently filled template with the values of an object
+     * (bean) directly into a data stream (see
+     * {@link #render(OutputStream, Map)}).
+     * @param  output data stream
+     * @param  values Object with the values, alternatively a {@link Map}
+     * @throws IOException
+     *     In case of faulty access to the data stream
+     */
+    public void render(OutputStream output, Object values)
+            throws IOException {
+
+        Objects.requireNonNull(output, "Output required");
+
+        Sink sink = new Sink(output);
+        try {this.emit(values, sink);
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+        sink.flush();
+    }
+
+    /**
+     * Renders a specified segment with the transferred values directly into a
+     * data stream. Literals and values are written in order without the
+     * output being created as a whole before. The data of the template are
+     * not affected by this. If the segment cannot be determined, nothing is
+     * written.
+     * @param  output data stream
+     * @param  scope  Segment
+     * @param  values Values
+     * @throws IOException
+     *     In case of faulty access to the data stream
+     */
+    public void render(OutputStream output, String scope, Map<String, Object> values)
+            throws IOException {
+        this.render(output, scope, (Object)values);
+    }
+    
+    /**
+     * Renders a specified segment with the values of an object (bean)
+     * directly into a data stream (see
+     * {@link #render(OutputStream, String, Map)}).
+     * @param  output data stream
+     * @param  scope  Segment
+     * @param  values Object with the values, alternatively a {@link Map}
+     * @throws IOException
+     *     In case of faulty access to the data stream
+     */
+    public void render(OutputStream output, String scope, Object values)
+            throws IOException {
+        
+        Objects.requireNonNull(output, "Output required");
+
+        if (scope != null)
+            scope = scope.toLowerCase().trim();
+        if (scope == null
+                || !Lexer.isName(scope))
+            return;
+
+        Sink sink = new Sink(output);
+        try {this.extract(scope, values, sink);
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+        sink.flush();
+    }
+
+    /**
+     * Renders the currently filled template with the values of an object
+     * (bean) or a {@link Map} directly into a channel. Literals of templates
+     * from files (see {@link Template#parse(Path, Charset, Map)}) are written
+     * from the mapped file without copying. The data of the template are not
+     * affected by this.
+     * @param  output channel
+     * @param  values Object with the values, alternatively a {@link Map}
+     * @throws IOException
+     *     In case of faulty access to the channel
+     */
+    public void render(WritableByteChannel output, Object values)
+            throws IOException {
+
+        Objects.requireNonNull(output, "Output required");
+
+        Sink sink = new Sink(output);
+        try {this.emit(values, sink);
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+        sink.flush();
+    }
+    
+    /**
+     * Renders a specified segment with the values of an object (bean) or a
+     * {@link Map} directly into a channel (see
+     * {@link #render(WritableByteChannel, Object)}). If the segment cannot
+     * be determined, nothing is written.
+     * @param  output channel
+     * @param  scope  Segment
+     * @param  values Object with the values, alternatively a {@link Map}
+     * @throws IOException
+     *     In case of faulty access to the channel
+     */
+    public void render(WritableByteChannel output, String scope, Object values)
+            throws IOException {
+        
+        Objects.requireNonNull(output, "Output required");
+
+        if (scope != null)
+            scope = scope.toLowerCase().trim();
+        if (scope == null
+                || !Lexer.isName(scope))
+            return;
+
+        Sink sink = new Sink(output);
+        try {this.extract(scope, values, sink);
+        } catch (UncheckedIOException exception) {
+            throw exception.getCause();
+        }
+        sink.flush();
+    }
+    
+    /**
+     * Renders the currently filled template with the values of an object
+     * (bean) or a {@link Map} directly into a buffer, which can also be a
+     * direct buffer. The output starts at the current position of the
+     * buffer, which is then behind the output. The data of the template are
+     * not affected by this.
+     * @param  output buffer
+     * @param  values Object with the values, alternatively a {@link Map}
+     * @throws BufferOverflowException
+     *     If the remaining space of the buffer is not sufficient
+     */
+    public void render(ByteBuffer output, Object values) {
+        
+        Objects.requireNonNull(output, "Output required");
+        
+        this.emit(values, new Target(output));
+    }
+    
+    /**
+     * Renders a specified segment with the values of an object (bean) or a
+     * {@link Map} directly into a buffer (see
+     * {@link #render(ByteBuffer, Object)}). If the segment cannot be
+     * determined, nothing is written.
+     * @param  output buffer
+     * @param  scope  Segment
+     * @param  values Object with the values, alternatively a {@link Map}
+     * @throws BufferOverflowException
+     *     If the remaining space of the buffer is not sufficient
+     */
+    public void render(ByteBuffer output, String scope, Object values) {
+        
+        Objects.requireNonNull(output, "Output required");
+
+        if (scope != null)
+            scope = scope.toLowerCase().trim();
+        if (scope == null
+                || !Lexer.isName(scope))
+            return;
+        
+        this.extract(scope, values, new Target(output));
+    }
+
+    /**
+     * Renders the currently filled template with the values of an object
+     * (bean) or a {@link Map} asynchronously into a channel. The template is
+     * rendered first, whereby literals and values are only referenced and
+     * not copied. The output is then written in chunks of limited size. No
+     * thread is blocked while the channel is not ready for writing. The data
+     * of the template are not affected by this. Errors when rendering or
+     * writing complete the returned future exceptionally.
+     * @param  output channel
+     * @param  values Object with the values, alternatively a {@link Map}
+     * @return the future that is completed when everything has been written
+     */
+    public CompletableFuture<Void> render(AsynchronousByteChannel output, Object values) {
+        
+        Objects.requireNonNull(output, "Output required");
+        
+        Assembly assembly = new Assembly();
+        try {this.emit(values, assembly);
+        } catch (RuntimeException exception) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(exception);
+            return future;
+        }
+        return new Dispatch(output, assembly).start();
+    }
+    
+    /**
+     * Renders a specified segment with the values of an object (bean) or a
+     * {@link Map} asynchronously into a channel (see
+     * {@link #render(AsynchronousByteChannel, Object)}). If the segment
+     * cannot be determined, nothing is written.
+     * @param  output channel
+     * @param  scope  Segment
+     * @param  values Object with the values, alternatively a {@link Map}
+     * @return the future that is completed when everything has been written
+     */
+    public CompletableFuture<Void> render(AsynchronousByteChannel output, String scope, Object values) {
+        
+        Objects.requireNonNull(output, "Output required");
+
+        if (scope != null)
+            scope = scope.toLowerCase().trim();
+        Assembly assembly = new Assembly();
+        if (scope != null
+                && Lexer.isName(scope)) {
+            try {this.extract(scope, values, assembly);
+            } catch (RuntimeException exception) {
+                CompletableFuture<Void> future = new CompletableFuture<>();
+                future.completeExceptionally(exception);
+                return future;
+            }
+        }
+        return new Dispatch(output, assembly).start();
+    }
+
+    /**
+     * Renders the currently filled template with the values of an object
+     * (bean) or a {@link Map} into a buffer from a pool. The output is
+     * assembled first and then copied exactly once into a buffer of the
+     * pool. The returned buffer contains the output from position 0 to the
+     * limit and should be returned to the pool with
+     * {@link Buffers#release(ByteBuffer)} after use. The data of the
+     * template are not affected by this.
+     * @param  buffers Pool of buffers
+     * @param  values  Object with the values, alternatively a {@link Map}
+     * @return the buffer with the output
+     */
+    public ByteBuffer render(Buffers buffers, Object values) {
+        
+        Objects.requireNonNull(buffers, "Buffers required");
+        
+        Estimate estimate = this.template.estimator(null);
+        Assembly output = new Assembly(estimate.spans);
+        this.emit(values, output);
+        estimate.update(output);
+        return Generator.transfer(output, buffers);
+    }
+    
+    /**
+     * Renders a specified segment with the values of an object (bean) or a
+     * {@link Map} into a buffer from a pool (see
+     * {@link #render(Buffers, Object)}). If the segment cannot be
+     * determined, the buffer is empty.
+     * @param  buffers Pool of buffers
+     * @param  scope   Segment
+     * @param  values  Object with the values, alternatively a {@link Map}
+     * @return the buffer with the output
+     */
+    public ByteBuffer render(Buffers buffers, String scope, Object values) {
+        
+        Objects.requireNonNull(buffers, "Buffers required");
+
+        if (scope != null)
+            scope = scope.toLowerCase().trim();
+        if (scope == null
+                || !Lexer.isName(scope))
+            return Generator.transfer(new Assembly(), buffers);
+        
+        Estimate estimate = this.template.estimator(scope);
+        Assembly output = new Assembly(estimate.spans);
+        this.extract(scope, values, output);
+        estimate.update(output);
+        return Generator.transfer(output, buffers);
+    }
+    
+    /**
+     * Copies an assembled output into a buffer from a pool.
+     * @param  output  assembled output
+     * @param  buffers Pool of buffers
+     * @return the buffer with the output from position 0 to the limit
+     */
+    private static ByteBuffer transfer(Assembly output, Buffers buffers) {
+        
+        ByteBuffer buffer = buffers.take(output.size());
+        output.fill(buffer.array(), buffer.arrayOffset());
+        buffer.limit(output.size());
+        return buffer;
+    }
+
+    /**
+     * Creates an incremental rendering of the currently filled template.
+     * This remembers the output of the placeholders and segments and renders
+     * only those whose values have changed compared to the previous
+     * rendering (see {@link Incremental}).
+     * @return the created incremental rendering
+     */
+    public Incremental incremental() {
+        return new Incremental(this);
+    }
+
+    /**
+     * Enables the parallel rendering of segments whose values are large lists
+     * with random access ({@link RandomAccess}). The rows are split into
+     * chunks, which are rendered in the common {@link ForkJoinPool} and then
+     * concatenated in their order. The values of the rows must therefore not
+     * be changed during rendering.
+     * @param threshold minimum number of rows for parallel rendering,
+     *                  0 disables the parallel rendering
+     */
+    public void parallelize(int threshold) {
+        this.parallelize(threshold, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Enables the parallel rendering of segments whose values are large lists
+     * with random access ({@link RandomAccess}). The rows are split into
+     * chunks, which are rendered in the specified {@link ForkJoinPool} and
+     * then concatenated in their order. The values of the rows must therefore
+     * not be changed during rendering.
+     * @param threshold minimum number of rows for parallel rendering,
+     *                  0 disables the parallel rendering
+     * @param pool      pool for parallel rendering
+     */
+    public void parallelize(int threshold, ForkJoinPool pool) {
+        
+        if (threshold < 0)
+            throw new IllegalArgumentException("Invalid threshold");
+        Objects.requireNonNull(pool, "Pool required");
+        
+        this.threshold = threshold;
+        this.pool = pool;
+    }
+
+    /**
+     * Enables a cache for the results of {@link #extract(String, Object)}.
+     * Segments are cached by the template, the segment and the values used
+     * in the segment, but only if all these values are immutable (strings,
+     * numbers, booleans, characters, enums or {@code null}) or byte arrays,
+     * which are used by content. The cache can be shared by any number of
+     * generators and threads.
+     * @param memo cache of extracted segments, {@code null} disables the
+     *             cache
+     */
+    public void memoize(Memo memo) {
+        this.memo = memo;
+    }
+
+    /**
+     * Sets the data for a scope or a segment.
+     * @param values Values
+     */
+    public void set(Map<String, Object> values) {
+        this.set(null, values);
+    }
+    
+    /**
+     * Sets the data of an object (bean). The placeholders are resolved by
+     * the fields and getters of the object.
+     * @param values Object with the values, alternatively a {@link Map}
+     */
+    public void set(Object values) {
+        this.set(null, values);
+    }
+
+    /**
+     * Sets the data for a scope or a segment.
+     * @param scope  Scope or segment
+     * @param values Values
+     */
+    public void set(String scope, Map<String, Object> values) {
+        this.set(scope, (Object)values);
+    }
+    
+    /**
+     * Sets the data of an object (bean) for a scope or a segment. The
+     * placeholders are resolved by the fields and getters of the object.
+     * @param scope  Scope or segment
+     * @param values Object with the values, alternatively a {@link Map}
+     */
+    public void set(String scope, Object values) {
+
+        if (scope != null)
+            scope = scope.toLowerCase().trim();
+        if (scope != null
+                && !Lexer.isName(scope))
+            return;
+        this.assemble(scope, values);
+    }
+    
+    /**
+     * Compiled template, the immutable part of the generator.
+     * The template contains the model and the segments as compiled
+     * instructions and can be used by any number of threads at the same time.
+     * The filling of the placeholders ({@link Generator#set(Map)}) is not part
+     * of the template, but of the generators created with
+     * {@link #generator()}. These are cheap and are intended to be created per
+     * use (e.g. per request) and should not be shared between threads.
+     */
+    public static class Template {
+        
+        /** Segments of the template as compiled instructions */
+        private final Map<String, Instruction[]> scopes;
+
+        /** Model, compiled instructions of the template */
+        private final Instruction[] model;
+        
+        /** Charset of the values */
+        private final Charset charset;
+        
+        /** Slots of the placeholder names */
+        private final Map<String, Integer> slots;
+        
+        /** Checksum of the source, charset and encoder names */
+        private final long checksum;
+        
+        /** Estimates of the outputs of the model and the segments */
+        private final Map<String, Estimate> estimates;
+        
+        /** Time of parsing or loading in nanoseconds */
+        private final long time;
+        
+        /** Metrics, only present when enabled */
+        private volatile Metrics metrics;
+        
+        /** Converters per type */
+        private final Map<Class<?>, Converter> converters;
+        
+        /** Converters determined per class of the values */
+        private final Map<Class<?>, Converter> resolved;
+        
+        /** Placeholder for classes without converter */
+        private static final Converter NONE = (value, charset, output) -> {};
+        
+        /** Slots of the placeholders used per segment */
+        private final Map<String, int[]> references;
+        
+        /** Identification of the serialized format */
+        private static final int FORMAT = 0x53475402;
+        
+        /**
+         * Constructor, creates a new template.
+         * @param scopes   segments as compiled instructions
+         * @param model    model as compiled instructions
+         * @param charset  charset of the values
+         * @param slots    slots of the placeholder names
+         * @param checksum checksum of the source
+         * @param time     time of parsing or loading in nanoseconds
+         * @param converters converters per type (optional)
+         */
+        private Template(Map<String, Instruction[]> scopes, Instruction[] model,
+                Charset charset, Map<String, Integer> slots, long checksum, long time,
+                Map<Class<?>, Converter> converters) {
+
+            this.scopes   = Collections.unmodifiableMap(scopes);
+            this.model    = model;
+            this.charset  = charset;
+            this.slots    = Collections.unmodifiableMap(slots);
+            this.checksum = checksum;
+            
+            this.estimates = new ConcurrentHashMap<>();
+            this.time      = time;
+            
+            if (converters == null) {
+                converters = new HashMap<>();
+                converters.put(Integer.class, Converter.NUMBER);
+                converters.put(Long.class,    Converter.NUMBER);
+                converters.put(Short.class,   Converter.NUMBER);
+                converters.put(Byte.class,    Converter.NUMBER);
+            }
+            this.converters = converters;
+            this.resolved   = new ConcurrentHashMap<>();
+            this.references = new ConcurrentHashMap<>();
+        }
+        
+        /**
+         * Constructor, creates a new compiled template based on a template
+         * with other converters. The compiled instructions, the slots, the
+         * estimates and enabled metrics are shared with the template, so
+         * bindings of the template can also be used.
+         * @param template   compiled template
+         * @param converters converters per type
+         */
+        private Template(Template template, Map<Class<?>, Converter> converters) {
+            
+            this.scopes    = template.scopes;
+            this.model     = template.model;
+            this.charset   = template.charset;
+            this.slots     = template.slots;
+            this.checksum  = template.checksum;
+            this.estimates = template.estimates;
+            this.time      = template.time;
+            this.metrics   = template.metrics;
+            
+            this.converters = converters;
+            this.resolved   = new ConcurrentHashMap<>();
+            this.references = template.references;
+        }
+
+        /**
+         * Creates a new compiled template based on the transferred template.
+         * The transferred bytes are copied and can be reused afterwards.
+         * @param  model Template as bytes
+         * @return the compiled template
+         */
+        public static Template parse(byte[] model) {
+            return Template.parse(model, null);
+        }
+        
+        /**
+         * Creates a new compiled template based on the transferred template.
+         * The transferred bytes are copied and can be reused afterwards.
+         * In addition to the standard encoders ({@link Encoder#HTML},
+         * {@link Encoder#XML}, {@link Encoder#JSON}, {@link Encoder#URL}),
+         * further encoders can be registered for the template by name, which
+         * can also replace the standard encoders. The encoders are resolved
+         * once when parsing.
+         * @param  model    Template as bytes
+         * @param  encoders Encoders by name (optional)
+         * @return the compiled template
+         */
+        public static Template parse(byte[] model, Map<String, Encoder> encoders) {
+            return Template.parse(model, null, encoders);
+        }
+        
+        /**
+         * Creates a new compiled template based on the transferred template.
+         * The transferred bytes are copied and can be reused afterwards.
+         * Values that are not byte arrays are encoded with the specified
+         * charset, without specification the charset of the platform is used.
+         * Further encoders for the placeholders can be registered by name
+         * (see {@link #parse(byte[], Map)}).
+         * @param  model    Template as bytes
+         * @param  charset  Charset of the values (optional)
+         * @param  encoders Encoders by name (optional)
+         * @return the compiled template
+         */
+        public static Template parse(byte[] model, Charset charset, Map<String, Encoder> encoders) {
+            
+            ByteBuffer buffer = null;
+            if (model != null)
+                buffer = ByteBuffer.wrap(model.clone());
+            return Template.compile(buffer, charset, encoders);
+        }
+        
+        /**
+         * Creates a new compiled template based on a file. The file is mapped
+         * into memory ({@link MappedByteBuffer}) and the literals are only
+         * referenced as byte spans of the mapping without being copied into
+         * the heap. The file must therefore not be changed as long as the
+         * template is used. Charset and encoders are used as with
+         * {@link #parse(byte[], Charset, Map)}.
+         * @param  path     Path of the template file
+         * @param  charset  Charset of the values (optional)
+         * @param  encoders Encoders by name (optional)
+         * @return the compiled template
+         * @throws IOException
+         *     In case of faulty access to the file
+         */
+        public static Template parse(Path path, Charset charset, Map<String, Encoder> encoders)
+                throws IOException {
+            
+            Objects.requireNonNull(path, "Path required");
+            
+            return Template.compile(Template.map(path), charset, encoders);
+        }
+        
+        /**
+         * Loads a compiled template from a file that was created from the
+         * source with {@link #write(OutputStream)}. The compiled file is
+         * mapped into memory and is used without scanning the source again.
+         * It contains a checksum of the source, the charset and the names of
+         * the encoders as well as a checksum of the compiled data. If the
+         * compiled file does not exist, is damaged or does not match the
+         * source, the template is parsed from the source (see
+         * {@link #parse(Path, Charset, Map)}) and the compiled file is
+         * (re)created. If the compiled file cannot be written (e.g. in a
+         * read-only directory), the parsed template is used anyway. Encoders
+         * are stored only by name and are resolved again when loading. The
+         * compiled file is replaced and not overwritten, so templates that
+         * are still in use are not affected.
+         * @param  source   Path of the template file
+         * @param  compiled Path of the compiled file
+         * @param  charset  Charset of the values (optional)
+         * @param  encoders Encoders by name (optional)
+         * @return the compiled template
+         * @throws IOException
+         *     In case of faulty access to the source
+         */
+        public static Template load(Path source, Path compiled, Charset charset, Map<String, Encoder> encoders)
+                throws IOException {
+            
+            Objects.requireNonNull(source, "Source required");
+            Objects.requireNonNull(compiled, "Compiled file required");
+            
+            ByteBuffer model = Template.map(source);
+            charset = Template.charset(charset);
+            Map<String, Encoder> registry = Template.registry(encoders);
+            long checksum = Template.checksum(model, charset, registry);
+            
+            if (Files.isRegularFile(compiled)) {
+                Template template;
+                try {template = Template.read(Template.map(compiled), charset, registry, checksum);
+                } catch (RuntimeException exception) {
+                    template = null;
+                }
+                if (template != null)
+                    return template;
+            }
+            
+            Template template = Template.compile(model, charset, registry, checksum);
+            
+            //The compiled file is only an acceleration, if it cannot be
+            //written, the parsed template is used.
+            Path directory = compiled.toAbsolutePath().getParent();
+            try {
+                Path temp = Files.createTempFile(directory, compiled.getFileName().toString(), null);
+                try {
+                    try (OutputStream output = Files.newOutputStream(temp)) {
+                        template.write(output);
+                    }
+                    Files.move(temp, compiled, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    Files.deleteIfExists(temp);
+                }
+            } catch (IOException exception) {
+            }
+            return template;
+        }
+        
+        /**
+         * Maps a file read-only into memory.
+         * @param  path Path of the file
+         * @return the mapped file
+         * @throws IOException
+         *     In case of faulty access to the file
+         */
+        private static MappedByteBuffer map(Path path)
+                throws IOException {
+            
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                if (channel.size() > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException("Template too large");
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        }
+        
+        /**
+         * Determines the charset of the values.
+         * @param  charset Charset of the values (optional)
+         * @return the specified or the default charset
+         */
+        private static Charset charset(Charset charset) {
+            
+            if (charset == null)
+                charset = Charset.defaultCharset();
+            if (!charset.canEncode())
+                throw new IllegalArgumentException("Invalid charset");
+            return charset;
+        }
+        
+        /**
+         * Creates the registry of the encoders from the standard encoders and
+         * the additionally specified encoders.
+         * @param  encoders Encoders by name (optional)
+         * @return the registry of the encoders
+         */
+        private static Map<String, Encoder> registry(Map<String, Encoder> encoders) {
+            
+            Map<String, Encoder> registry = new HashMap<>();
+            registry.put("html", Encoder.HTML);
+            registry.put("xml",  Encoder.XML);
+            registry.put("json", Encoder.JSON);
+            registry.put("url",  Encoder.URL);
+            if (encoders != null)
+                for (Map.Entry<String, Encoder> entry : encoders.entrySet()) {
+                    String name = entry.getKey();
+                    if (name != null)
+                        name = name.toLowerCase().trim();
+                    if (name == null
+                            || !Lexer.isName(name))
+                        throw new IllegalArgumentException("Invalid encoder name");
+                    registry.put(name, Objects.requireNonNull(entry.getValue(), "Encoder required"));
+                }
+            return registry;
+        }
+        
+        /**
+         * Determines the checksum of a source together with the charset and
+         * the names of the encoders, since both influence the compilation.
+         * @param  model    model (optional)
+         * @param  charset  Charset of the values
+         * @param  registry Registry of the encoders
+         * @return the checksum
+         */
+        private static long checksum(ByteBuffer model, Charset charset, Map<String, Encoder> registry) {
+            
+            CRC32 checksum = new CRC32();
+            if (model != null)
+                checksum.update(model.duplicate());
+            checksum.update(charset.name().getBytes(StandardCharsets.ISO_8859_1));
+            for (String name : new TreeSet<>(registry.keySet()))
+                checksum.update((":" + name).getBytes(StandardCharsets.ISO_8859_1));
+            return checksum.getValue();
+        }
+        
+        /**
+         * Compiles a model into a template.
+         * @param  model    model (optional)
+         * @param  charset  Charset of the values (optional)
+         * @param  encoders Encoders by name (optional)
+         * @return the compiled template
+         */
+        private static Template compile(ByteBuffer model, Charset charset, Map<String, Encoder> encoders) {
+            
+            charset = Template.charset(charset);
+            Map<String, Encoder> registry = Template.registry(encoders);
+            return Template.compile(model, charset, registry, Template.checksum(model, charset, registry));
+        }
+        
+        /**
+         * Compiles a model into a template.
+         * @param  model    model (optional)
+         * @param  charset  Charset of the values
+         * @param  registry Registry of the encoders
+         * @param  checksum Checksum of the source
+         * @return the compiled template
+         */
+        private static Template compile(ByteBuffer model, Charset charset,
+                Map<String, Encoder> registry, long checksum) {
+
+            long time = System.nanoTime();
+            HashMap<String, Instruction[]> scopes = new HashMap<>();
+            Instruction[] instructions = new Instruction[0];
+            if (model != null)
+                instructions = Generator.scan(new Lexer(model), 0, model.capacity(), scopes, registry);
+            
+            //Only now are all scopes known, so the placeholders can be
+            //qualified as scope references in the model and in all segments.
+            //Each placeholder name gets a slot for the values.
+            Map<String, Integer> slots = new LinkedHashMap<>();
+            instructions = Generator.repeat(Generator.qualify(instructions, scopes, slots));
+            for (Map.Entry<String, Instruction[]> entry : scopes.entrySet())
+                entry.setValue(Generator.repeat(Generator.qualify(entry.getValue(), scopes, slots)));
+            return new Template(scopes, instructions, charset, slots, checksum, System.nanoTime() -time, null);
+        }
+        
+        /**
+         * Reads a template from the serialized format. Literals are only
+         * referenced as byte spans of the buffer. All counts and lengths are
+         * checked against the remaining data before they are used, damaged
+         * data causes an {@link IllegalStateException}.
+         * @param  buffer   serialized template
+         * @param  charset  Charset of the values
+         * @param  registry Registry of the encoders
+         * @param  checksum expected checksum of the source
+         * @return the template, or {@code null} if the serialized template
+         *     does not match
+         */
+        private static Template read(ByteBuffer buffer, Charset charset,
+                Map<String, Encoder> registry, long checksum) {
+            
+            long time = System.nanoTime();
+            if (buffer.remaining() < 20
+                    || buffer.getInt() != FORMAT
+                    || buffer.getLong() != checksum)
+                return null;
+            
+            //The checksum of the compiled data detects damaged files.
+            long verification = buffer.getLong();
+            CRC32 crc = new CRC32();
+            crc.update(buffer.duplicate());
+            if (crc.getValue() != verification)
+                return null;
+            
+            if (!charset.name().equals(Template.read(buffer)))
+                return null;
+            
+            Map<String, Integer> slots = new LinkedHashMap<>();
+            String[] names = new String[Template.check(buffer, buffer.getInt(), 4)];
+            for (int index = 0; index < names.length; index++) {
+                names[index] = Template.read(buffer);
+                slots.put(names[index], Integer.valueOf(index));
+            }
+            
+            Instruction[] model = Template.read(buffer, names, registry);
+            HashMap<String, Instruction[]> scopes = new HashMap<>();
+            for (int count = Template.check(buffer, buffer.getInt(), 8); count > 0; count--) {
+                String scope = Template.read(buffer);
+                scopes.put(scope, Template.read(buffer, names, registry));
+            }
+            if (model == null
+                    || scopes.containsValue(null))
+                return null;
+            model = Generator.repeat(model);
+            for (Map.Entry<String, Instruction[]> entry : scopes.entrySet())
+                entry.setValue(Generator.repeat(entry.getValue()));
+            return new Template(scopes, model, charset, slots, checksum, System.nanoTime() -time, null);
+        }
+        
+        /**
+         * Reads compiled instructions from the serialized format.
+         * @param  buffer   serialized template
+         * @param  names    placeholder names by slot
+         * @param  registry Registry of the encoders
+         * @return the instructions, or {@code null} if an encoder is missing
+         */
+        private static Instruction[] read(ByteBuffer buffer, String[] names, Map<String, Encoder> registry) {
+            
+            Instruction[] instructions = new Instruction[Template.check(buffer, buffer.getInt(), 5)];
+            for (int index = 0; index < instructions.length; index++) {
+                int ordinal = buffer.get();
+                if (ordinal < 0
+                        || ordinal >= Instruction.Type.values().length)
+                    throw new IllegalStateException("Invalid compiled template");
+                Instruction.Type type = Instruction.Type.values()[ordinal];
+                if (type == Instruction.Type.LITERAL
+                        || type == Instruction.Type.CONSTANT) {
+                    int length = Template.check(buffer, buffer.getInt(), 1);
+                    if (type == Instruction.Type.CONSTANT) {
+                        byte[] data = new byte[length];
+                        buffer.get(data);
+                        instructions[index] = Instruction.constant(data);
+                    } else {
+                        instructions[index] = Instruction.literal(buffer, buffer.position(), length);
+                        buffer.position(buffer.position() +length);
+                    }
+                    continue;
+                }
+                int slot = buffer.getInt();
+                if (slot < 0
+                        || slot >= names.length
+                        || names[slot] == null)
+                    throw new IllegalStateException("Invalid compiled template");
+                String encoding = Template.read(buffer);
+                Encoder encoder = encoding != null ? registry.get(encoding) : null;
+                if (encoding != null
+                        && encoder == null)
+                    return null;
+                instructions[index] = new Instruction(type, names[slot], encoding, encoder, slot, null, null, 0, 0, false);
+            }
+            return instructions;
+        }
+        
+        /**
+         * Reads a name from the serialized format.
+         * @param  buffer serialized template
+         * @return the name, otherwise {@code null}
+         */
+        private static String read(ByteBuffer buffer) {
+            
+            int length = Template.check(buffer, buffer.getInt(), 1);
+            if (length <= 0)
+                return null;
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            return new String(bytes, StandardCharsets.ISO_8859_1);
+        }
+        
+        /**
+         * Checks a count or a length of the serialized format against the
+         * remaining data before anything is allocated for it.
+         * @param  buffer serialized template
+         * @param  count  count or length
+         * @param  size   minimum size of an element in bytes
+         * @return the checked count or length
+         * @throws IllegalStateException
+         *     If the count or length does not match the remaining data
+         */
+        private static int check(ByteBuffer buffer, int count, int size) {
+            
+            if (count < 0
+                    || (long)count *size > buffer.remaining())
+                throw new IllegalStateException("Invalid compiled template");
+            return count;
+        }
+        
+        /**
+         * Writes the compiled template in a compact binary format, which can
+         * be loaded later without scanning the source again (see
+         * {@link #load(Path, Path, Charset, Map)}). Encoders are written only
+         * by name.
+         * @param  output data stream
+         * @throws IOException
+         *     In case of faulty access to the data stream
+         */
+        public void write(OutputStream output)
+                throws IOException {
+            
+            //The compiled data is created first, because its checksum is
+            //written in front of it.
+            ByteArrayOutputStream payload = new ByteArrayOutputStream();
+            DataOutputStream data = new DataOutputStream(payload);
+            Template.write(data, this.charset.name());
+            data.writeInt(this.slots.size());
+            for (String name : this.slots.keySet())
+                Template.write(data, name);
+            Template.write(data, this.model);
+            data.writeInt(this.scopes.size());
+            for (Map.Entry<String, Instruction[]> entry : this.scopes.entrySet()) {
+                Template.write(data, entry.getKey());
+                Template.write(data, entry.getValue());
+            }
+            data.flush();
+            
+            byte[] bytes = payload.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            data = new DataOutputStream(new BufferedOutputStream(output));
+            data.writeInt(FORMAT);
+            data.writeLong(this.checksum);
+            data.writeLong(crc.getValue());
+            data.write(bytes);
+            data.flush();
+        }
+        
+        /**
+         * Writes compiled instructions in the serialized format.
+         * @param  data         data stream
+         * @param  instructions compiled instructions
+         * @throws IOException
+         *     In case of faulty access to the data stream
+         */
+        private static void write(DataOutputStream data, Instruction[] instructions)
+                throws IOException {
+            
+            data.writeInt(instructions.length);
+            for (Instruction instruction : instructions) {
+                data.writeByte(instruction.type.ordinal());
+                if (instruction.type == Instruction.Type.LITERAL
+                        || instruction.type == Instruction.Type.CONSTANT) {
+                    data.writeInt(instruction.length);
+                    if (instruction.buffer != null) {
+                        byte[] bytes = new byte[instruction.length];
+                        Generator.slice(instruction.buffer, instruction.offset, instruction.length).get(bytes);
+                        data.write(bytes);
+                    } else data.write(instruction.data, instruction.offset, instruction.length);
+                    continue;
+                }
+                data.writeInt(instruction.slot);
+                Template.write(data, instruction.encoding);
+            }
+        }
+        
+        /**
+         * Writes a name in the serialized format.
+         * @param  data data stream
+         * @param  name name (optional)
+         * @throws IOException
+         *     In case of faulty access to the data stream
+         */
+        private static void write(DataOutputStream data, String name)
+                throws IOException {
+            
+            if (name == null) {
+                data.writeInt(0);
+                return;
+            }
+            byte[] bytes = name.getBytes(StandardCharsets.ISO_8859_1);
+            data.writeInt(bytes.length);
+            data.write(bytes);
+        }
+        
+        /**
+         * Creates a new generator with its own and empty filling based on the
+         * template. The template is shared and not copied.
+         * @return the created generator
+         */
+        public Generator generator() {
+            return new Generator(this);
+        }
+        
+        /**
+         * Return all scopes of the segments as enumeration.
+         * Free scopes (without segment) are not included.
+         * @return all scopes of the segments as enumeration
+         */
+        public Enumeration<String> scopes() {
+            return Collections.enumeration(this.scopes.keySet());
+        }
+        
+        /**
+         * Returns the names of all placeholders used in the model, including
+         * the placeholders of segments/scopes. The placeholders used within
+         * the segments are not included.
+         * @return the names of the placeholders as enumeration
+         */
+        public Enumeration<String> placeholders() {
+            return Generator.placeholders(this.model);
+        }
+        
+        /**
+         * Returns the names of all placeholders used in a segment, including
+         * the placeholders of the segments/scopes used in it. These are the
+         * keys that are taken into account when filling the segment. If the
+         * segment does not exist, the enumeration is empty.
+         * @param  scope Segment
+         * @return the names of the placeholders as enumeration
+         */
+        public Enumeration<String> placeholders(String scope) {
+            
+            if (scope != null)
+                scope = scope.toLowerCase().trim();
+            Instruction[] instructions = scope != null ? this.scopes.get(scope) : null;
+            if (instructions == null)
+                instructions = new Instruction[0];
+            return Generator.placeholders(instructions);
+        }
+        
+        /**
+         * Determines the sorted slots of the placeholders used in the model
+         * or in a segment, including the placeholders of the segments/scopes
+         * used in it. The result is remembered per existing segment.
+         * @param  scope Segment, {@code null} for the model
+         * @return the slots of the placeholders used in the model or segment
+         */
+        private int[] references(String scope) {
+            
+            if (scope != null
+                    && !this.scopes.containsKey(scope))
+                return new int[0];
+            
+            //The model is remembered with an empty name, which is not valid
+            //for segments.
+            String key = scope != null ? scope : "";
+            int[] references = this.references.get(key);
+            if (references == null) {
+                Enumeration<String> placeholders = scope != null ? this.placeholders(scope) : this.placeholders();
+                Set<Integer> slots = new TreeSet<>();
+                while (placeholders.hasMoreElements()) {
+                    Integer slot = this.slots.get(placeholders.nextElement());
+                    if (slot != null)
+                        slots.add(slot);
+                }
+                references = slots.stream().mapToInt(Integer::intValue).toArray();
+                this.references.put(key, references);
+            }
+            return references;
+        }
+        
+        /**
+         * Returns the slot of a placeholder name for a {@link Binding}.
+         * @param  name name of the placeholder (case insensitive)
+         * @return the slot of the placeholder name, otherwise -1
+         */
+        public int slot(String name) {
+            
+            if (name == null)
+                return -1;
+            Integer slot = this.slots.get(name.toLowerCase().trim());
+            return slot != null ? slot.intValue() : -1;
+        }
+        
+        /**
+         * Creates a new and empty binding of values for the template.
+         * @return the created binding
+         */
+        public Binding binding() {
+            return new Binding(this);
+        }
+        
+        /**
+         * Returns the estimated size of the output of the model or a segment.
+         * The estimate is a moving average of the previous outputs of
+         * {@link Generator#extract()}, {@link Generator#extract(String, Object)}
+         * and {@link Generator#render(Buffers, Object)} and can be used to
+         * size buffers for the output.
+         * @param  scope Segment, {@code null} for the model
+         * @return the estimated size of the output, 0 without previous output
+         */
+        public int estimate(String scope) {
+            
+            if (scope != null)
+                scope = scope.toLowerCase().trim();
+            Estimate estimate = this.estimates.get(scope != null ? scope : "");
+            return estimate != null ? estimate.size : 0;
+        }
+        
+        /**
+         * Returns the estimate of the outputs of the model or a segment.
+         * Only the model and the segments of the template are kept, for other
+         * scopes a new estimate is returned that is not kept.
+         * @param  scope Segment, {@code null} for the model
+         * @return the estimate of the outputs
+         */
+        private Estimate estimator(String scope) {
+            
+            if (scope != null
+                    && !this.scopes.containsKey(scope))
+                return new Estimate();
+            return this.estimates.computeIfAbsent(scope != null ? scope : "", key -> new Estimate());
+        }
+        
+        /**
+         * Creates a template with an additional converter for the values of
+         * a type and its subclasses. Values with a converter are written by
+         * the converter instead of {@link String#valueOf(Object)}, e.g.
+         * numbers and dates without intermediate strings. The template
+         * itself is not changed, the created template shares the compiled
+         * instructions, estimates, enabled metrics and bindings with it.
+         * @param  <T>       type of the values
+         * @param  type      type of the values
+         * @param  converter converter, {@code null} removes the converter
+         * @return the template with the converter
+         */
+        public <T> Template converter(Class<T> type, Converter<? super T> converter) {
+            
+            Objects.requireNonNull(type, "Type required");
+            
+            Map<Class<?>, Converter> converters = new HashMap<>(this.converters);
+            if (converter != null)
+                converters.put(type, converter);
+            else converters.remove(type);
+            return new Template(this, converters);
+        }
+        
+        /**
+         * Determines the converter for a class of values. The converter of
+         * the class itself, otherwise of the next superclass and only then
+         * of the interfaces including their superinterfaces is used. The
+         * result is remembered per class.
+         * @param  type class of the values
+         * @return the converter, otherwise {@code null}
+         */
+        private Converter converter(Class<?> type) {
+            
+            if (this.converters.isEmpty())
+                return null;
+            Converter converter = this.resolved.get(type);
+            if (converter == null) {
+                for (Class<?> source = type; source != null && converter == null; source = source.getSuperclass())
+                    converter = this.converters.get(source);
+                for (Class<?> source = type; source != null && converter == null; source = source.getSuperclass())
+                    converter = this.converter(source.getInterfaces());
+                if (converter == null)
+                    converter = NONE;
+                this.resolved.put(type, converter);
+            }
+            return converter != NONE ? converter : null;
+        }
+        
+        /**
+         * Determines the converter for interfaces. The converters of the
+         * interfaces themselves are used before those of their
+         * superinterfaces.
+         * @param  interfaces interfaces
+         * @return the converter, otherwise {@code null}
+         */
+        private Converter converter(Class<?>[] interfaces) {
+            
+            for (Class<?> face : interfaces)
+                if (this.converters.containsKey(face))
+                    return this.converters.get(face);
+            for (Class<?> face : interfaces) {
+                Converter converter = this.converter(face.getInterfaces());
+                if (converter != null)
+                    return converter;
+            }
+            return null;
+        }
+        
+        /**
+         * Returns the metrics of the template. The metrics are only collected
+         * from the first call, before that rendering is not instrumented.
+         * @return the metrics of the template
+         */
+        public Metrics metrics() {
+            
+            if (this.metrics == null)
+                synchronized (this) {
+                    if (this.metrics == null)
+                        this.metrics = new Metrics(this.time);
+                }
+            return this.metrics;
+        }
+        
+        /**
+         * Returns the charset with which the values are encoded.
+         * @return the charset of the values
+         */
+        public Charset charset() {
+            return this.charset;
+        }
+    }
+    
+    /**
+     * Binding of values to the placeholders of a template.
+     * The placeholder names of a template are assigned to slots once when
+     * parsing. A binding holds the values in these slots, so that no
+     * normalization of the keys is required for filling and rendering. The
+     * slots can be determined once with {@link Template#slot(String)} or
+     * {@link #slot(String)} and the binding can be reused, e.g. for all rows
+     * of a table. The binding is a {@link Map} and is passed like the other
+     * values, for generators of other templates it behaves like a normal map.
+     * Keys without placeholder in the template are ignored, {@code null}
+     * corresponds to a missing value.
+     */
+    public static class Binding extends AbstractMap<String, Object> {
+        
+        /** Template of the binding */
+        private final Template template;
+        
+        /** Values in the slots of the template */
+        private final Object[] values;
+        
+        /**
+         * Constructor, creates a new binding.
+         * @param template template
+         */
+        private Binding(Template template) {
+            
+            this.template = template;
+            this.values   = new Object[template.slots.size()];
+        }
+        
+        /**
+         * Returns the slot of a placeholder name.
+         * @param  name name of the placeholder (case insensitive)
+         * @return the slot of the placeholder name, otherwise -1
+         */
+        public int slot(String name) {
+            return this.template.slot(name);
+        }
+        
+        /**
+         * Sets the value of a slot.
+         * @param  slot  slot
+         * @param  value value
+         * @return the binding itself
+         * @throws IndexOutOfBoundsException
+         *     If the slot does not exist
+         */
+        public Binding set(int slot, Object value) {
+            
+            this.values[slot] = value;
+            return this;
+        }
+        
+        /**
+         * Returns the value of a slot.
+         * @param  slot slot
+         * @return the value of the slot, otherwise {@code null}
+         * @throws IndexOutOfBoundsException
+         *     If the slot does not exist
+         */
+        public Object get(int slot) {
+            return this.values[slot];
+        }
+        
+        @Override
+        public Object get(Object key) {
+            
+            int slot = key instanceof String ? this.slot((String)key) : -1;
+            return slot >= 0 ? this.values[slot] : null;
+        }
+        
+        @Override
+        public boolean containsKey(Object key) {
+            return this.get(key) != null;
+        }
+        
+        @Override
+        public Object put(String key, Object value) {
+            
+            int slot = this.slot(key);
+            if (slot < 0)
+                return null;
+            Object previous = this.values[slot];
+            this.values[slot] = value;
+            return previous;
+        }
+        
+        @Override
+        public Object remove(Object key) {
+            
+            int slot = key instanceof String ? this.slot((String)key) : -1;
+            if (slot < 0)
+                return null;
+            Object previous = this.values[slot];
+            this.values[slot] = null;
+            return previous;
+        }
+        
+        @Override
+        public void clear() {
+            Arrays.fill(this.values, null);
+        }
+        
+        /**
+         * Returns the values with their placeholder names as a copy.
+         * @return the values with their placeholder names
+         */
+        @Override
+        public Set<Map.Entry<String, Object>> entrySet() {
+            
+            Map<String, Object> entries = new LinkedHashMap<>();
+            for (Map.Entry<String, Integer> slot : this.template.slots.entrySet())
+                if (this.values[slot.getValue().intValue()] != null)
+                    entries.put(slot.getKey(), this.values[slot.getValue().intValue()]);
+            return Collections.unmodifiableMap(entries).entrySet();
+        }
+    }
+    
+    /**
+     * Incremental rendering of a generator for repeated rendering with mostly
+     * unchanged values, e.g. for dashboards. The output of each placeholder
+     * and segment of the currently filled model is remembered together with
+     * its value. With the next rendering, the values are compared with
+     * {@link Object#equals(Object)} (byte arrays by content) and only the
+     * placeholders and segments with changed values are rendered again, the
+     * others reuse their previous output. The changed byte ranges of the last
+     * output are provided as {@link Region}.<br>
+     * Since the comparison is made with the values of the previous rendering,
+     * values such as maps and lists must not be changed after rendering, but
+     * must be replaced. Iterators and streams are always rendered again. If
+     * the filling of the generator is changed with {@link Generator#set(Map)},
+     * the remembered output is discarded. Like the generator, the
+     * incremental rendering is not thread-safe.
+     */
+    public static class Incremental {
+        
+        /** Generator */
+        private final Generator generator;
+        
+        /** Model of the remembered output */
+        private Instruction[] model;
+        
+        /** Values of the placeholders of the previous rendering */
+        private Object[] values;
+        
+        /** Output of the placeholders of the previous rendering */
+        private byte[][] outputs;
+        
+        /** Changed regions of the last output */
+        private List<Region> regions;
+
+        /**
+         * Constructor, creates a new incremental rendering.
+         * @param generator generator
+         */
+        private Incremental(Generator generator) {
+            
+            this.generator = generator;
+            this.regions   = Collections.emptyList();
+        }
+        
+        /**
+         * Renders the currently filled template of the generator with the
+         * transferred values. Only placeholders and segments with changed
+         * values are rendered again.
+         * @param  values Values
+         * @return the rendered output
+         */
+        public byte[] render(Map<String, Object> values) {
+            return this.render((Object)values);
+        }
+        
+        /**
+         * Renders the currently filled template of the generator with the
+         * values of an object (bean). Only placeholders and segments with
+         * changed values are rendered again.
+         * @param  values Object with the values, alternatively a {@link Map}
+         * @return the rendered output
+         */
+        public byte[] render(Object values) {
+            
+            Generator generator = this.generator;
+            generator.splice();
+            Instruction[] model = generator.model;
+            
+            //If the filling of the generator has changed, the remembered
+            //output is no longer valid.
+            if (this.model != model) {
+                this.model   = model;
+                this.values  = new Object[model.length];
+                this.outputs = new byte[model.length][];
+            }
+            
+            Object[] slots = Generator.normalize(generator.template, null, values);
+            
+            //values that can only be consumed once are rendered once
+            Map<String, Assembly> streams = new HashMap<>();
+            
+            Assembly output = new Assembly();
+            List<Region> regions = new ArrayList<>();
+            for (int index = 0; index < model.length; index++) {
+                Instruction instruction = model[index];
+                if (instruction.type == Instruction.Type.LITERAL
+                        || instruction.type == Instruction.Type.CONSTANT) {
+                    instruction.write(output);
+                    continue;
+                }
+                
+                Object value = Generator.resolve(slots, instruction.slot);
+                if (this.outputs[index] == null
+                        || value instanceof Iterator
+                        || value instanceof Stream
+                        || !Incremental.equals(this.values[index], value)) {
+                    Assembly assembly = new Assembly();
+                    if (instruction.repeated
+                            && (value instanceof Iterator
+                                    || value instanceof Stream))
+                        generator.assemble(instruction, value, assembly, streams);
+                    else generator.assemble(instruction, value, assembly);
+                    int previous = this.outputs[index] != null ? this.outputs[index].length : 0;
+                    this.outputs[index] = assembly.toByteArray();
+                    
+                    //byte arrays are compared by content and can be reused by
+                    //the caller, so a copy is remembered
+                    if (value instanceof byte[])
+                        value = ((byte[])value).clone();
+                    this.values[index] = value;
+                    
+                    //Directly following changes are combined. Changes whose
+                    //output is empty (deletions) are recorded as region
+                    //without length at the offset of the change.
+                    int length = this.outputs[index].length;
+                    Region region = regions.isEmpty() ? null : regions.get(regions.size() -1);
+                    if (region != null
+                            && region.offset +region.length == output.size())
+                        regions.set(regions.size() -1, new Region(region.offset, region.length +length));
+                    else if (length > 0
+                            || previous > 0)
+                        regions.add(new Region(output.size(), length));
+                }
+                output.append(this.outputs[index]);
+            }
+            
+            this.regions = Collections.unmodifiableList(regions);
+            return output.toByteArray();
+        }
+        
+        /**
+         * Compares two values, byte arrays are compared by content.
+         * @param  value   value
+         * @param  compare value to compare
+         * @return {@code true} if both values are equal
+         */
+        private static boolean equals(Object value, Object compare) {
+            
+            if (value instanceof byte[]
+                    && compare instanceof byte[])
+                return Arrays.equals((byte[])value, (byte[])compare);
+            return Objects.equals(value, compare);
+        }
+        
+        /**
+         * Returns the changed regions of the last output. Changes that
+         * directly follow each other are combined. With the first rendering,
+         * all placeholders and segments count as changed. Changes whose
+         * output is now empty are regions without length at the offset of
+         * the change.
+         * @return the changed regions of the last output
+         */
+        public List<Region> regions() {
+            return this.regions;
+        }
+    }
+    
+    /**
+     * Moving estimate of the outputs of the model or a segment of a template.
+     * The size and number of byte spans of each output are included with a
+     * weight of 1/8. Concurrent updates are not synchronized, because an
+     * estimate is sufficient.
+     */
+    private static class Estimate {
+        
+        /** Estimated size of the output */
+        private volatile int size;
+        
+        /** Estimated number of byte spans */
+        private volatile int spans;
+        
+        /**
+         * Includes an output in the estimate.
+         * @param assembly output
+         */
+        private void update(Assembly assembly) {
+            
+            if (this.spans <= 0) {
+                this.size  = assembly.size;
+                this.spans = assembly.count;
+                return;
+            }
+            this.size  += (assembly.size -this.size) /8;
+            this.spans += (assembly.count -this.spans) /8;
+        }
+    }
+    
+    /**
+     * Bounded pool of buffers for outputs (see
+     * {@link Generator#render(Buffers, Object)}). Buffers that are no longer
+     * needed are returned with {@link #release(ByteBuffer)} and reused by
+     * later outputs. The pool keeps a maximum number of buffers up to a
+     * maximum size, larger buffers are not kept. The pool is thread-safe.
+     */
+    public static class Buffers {
+        
+        /** Maximum number of kept buffers */
+        private final int count;
+        
+        /** Maximum size of kept buffers */
+        private final int limit;
+        
+        /** Kept buffers */
+        private final List<byte[]> buffers;
+        
+        /**
+         * Constructor, creates a new pool of buffers.
+         * @param count maximum number of kept buffers
+         * @param limit maximum size of kept buffers in bytes
+         */
+        public Buffers(int count, int limit) {
+            
+            if (count < 0)
+                throw new IllegalArgumentException("Invalid count");
+            if (limit < 0)
+                throw new IllegalArgumentException("Invalid limit");
+            
+            this.count   = count;
+            this.limit   = limit;
+            this.buffers = new ArrayList<>();
+        }
+        
+        /**
+         * Takes a buffer with at least the specified capacity from the pool.
+         * If no suitable buffer is kept, a new one is created whose capacity
+         * is rounded up to the next power of two.
+         * @param  size required capacity
+         * @return the buffer, empty and ready for writing
+         */
+        public ByteBuffer take(int size) {
+            
+            if (size < 0)
+                throw new IllegalArgumentException("Invalid size");
+            
+            synchronized (this.buffers) {
+                int match = -1;
+                for (int index = 0; index < this.buffers.size(); index++)
+                    if (this.buffers.get(index).length >= size
+                            && (match < 0 || this.buffers.get(index).length < this.buffers.get(match).length))
+                        match = index;
+                if (match >= 0)
+                    return ByteBuffer.wrap(this.buffers.remove(match));
+            }
+            
+            int capacity = size;
+            if (size > 1 && size <= 1 << 30)
+                capacity = Integer.highestOneBit(size -1) << 1;
+            return ByteBuffer.wrap(new byte[capacity]);
+        }
+        
+        /**
+         * Returns a buffer to the pool. Buffers that are not based on an
+         * array, are too large or exceed the number of kept buffers are
+         * discarded. The buffer must no longer be used afterwards, a buffer
+         * that is already kept cannot be returned again.
+         * @param  buffer buffer
+         * @throws IllegalArgumentException
+         *     If the buffer has already been returned and is kept
+         */
+        public void release(ByteBuffer buffer) {
+            
+            if (buffer == null
+                    || !buffer.hasArray()
+                    || buffer.isReadOnly()
+                    || buffer.array().length > this.limit)
+                return;
+            byte[] array = buffer.array();
+            synchronized (this.buffers) {
+                for (byte[] kept : this.buffers)
+                    if (kept == array)
+                        throw new IllegalArgumentException("Buffer already released");
+                if (this.buffers.size() < this.count)
+                    this.buffers.add(array);
+            }
+        }
+        
+        /**
+         * Returns the number of kept buffers.
+         * @return the number of kept buffers
+         */
+        public int size() {
+            
+            synchronized (this.buffers) {
+                return this.buffers.size();
+            }
+        }
+    }
+    
+    /**
+     * Management interface of the metrics of a template (see
+     * {@link Metrics}). The attributes refer to the model, the statistics
+     * contain the model and all rendered segments.
+     */
+    public interface MetricsMBean {
+        
+        /**
+         * Returns the time of parsing or loading of the template.
+         * @return the time of parsing or loading in nanoseconds
+         */
+        long getParseTime();
+        
+        /**
+         * Returns the number of renderings of the model.
+         * @return the number of renderings of the model
+         */
+        long getRenders();
+        
+        /**
+         * Returns the total time of the renderings of the model.
+         * @return the total time in nanoseconds
+         */
+        long getRenderTime();
+        
+        /**
+         * Returns the number of bytes emitted by the model.
+         * @return the number of bytes emitted
+         */
+        long getBytes();
+        
+        /**
+         * Returns the number of placeholders of the model without value.
+         * @return the number of placeholders without value
+         */
+        long getUnresolved();
+        
+        /**
+         * Returns the number of renderings of the model by latency (see
+         * {@link Snapshot#getLatencies()}).
+         * @return the number of renderings by latency
+         */
+        long[] getLatencies();
+        
+        /**
+         * Returns the statistics of the model and the rendered segments as
+         * text, one line each.
+         * @return the statistics as text
+         */
+        String[] getStatistics();
+    }
+    
+    /**
+     * Metrics of a template. The renderings of the model and the segments
+     * are recorded separately with the number, time, latency, emitted bytes,
+     * placeholders without value and rows of the segments. The renderings of
+     * the segments are included in the model. The metrics can be queried
+     * with {@link #snapshot()} or via JMX as MBean (see
+     * {@link #register(String)}). The metrics are enabled with
+     * {@link Template#metrics()}. Incremental renderings are not recorded.
+     */
+    public static class Metrics implements MetricsMBean {
+        
+        /** Time of parsing or loading in nanoseconds */
+        private final long time;
+        
+        /** Statistics of the model and the segments */
+        private final Map<String, Statistic> statistics;
+        
+        /**
+         * Constructor, creates new metrics.
+         * @param time time of parsing or loading in nanoseconds
+         */
+        private Metrics(long time) {
+            
+            this.time       = time;
+            this.statistics = new ConcurrentHashMap<>();
+        }
+        
+        /**
+         * Returns the statistic of the model or a segment.
+         * @param  scope Segment, {@code null} for the model
+         * @return the statistic
+         */
+        private Statistic statistic(String scope) {
+            return this.statistics.computeIfAbsent(scope != null ? scope : "", key -> new Statistic());
+        }
+        
+        /**
+         * Registers the metrics as MBean at the platform MBean server with
+         * the name {@code com.seanox.common:type=Generator,name=...}.
+         * @param  name Name of the template
+         * @return the name of the registered MBean
+         * @throws JMException
+         *     In case of faulty registration
+         */
+        public ObjectName register(String name)
+                throws JMException {
+            
+            Objects.requireNonNull(name, "Name required");
+            
+            ObjectName object = new ObjectName("com.seanox.common:type=Generator,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, object);
+            return object;
+        }
+        
+        /**
+         * Creates a snapshot of the model or a segment.
+         * @param  scope Segment, {@code null} for the model
+         * @return the snapshot of the model or segment
+         */
+        public Snapshot snapshot(String scope) {
+            
+            if (scope != null)
+                scope = scope.toLowerCase().trim();
+            Statistic statistic = this.statistics.get(scope != null ? scope : "");
+            if (statistic == null)
+                statistic = new Statistic();
+            return new Snapshot(scope, statistic);
+        }
+        
+        /**
+         * Creates snapshots of the model and all rendered segments.
+         * @return the snapshots of the model and the rendered segments
+         */
+        public List<Snapshot> snapshot() {
+            
+            List<Snapshot> snapshots = new ArrayList<>();
+            for (String scope : new TreeSet<>(this.statistics.keySet()))
+                snapshots.add(this.snapshot(scope.isEmpty() ? null : scope));
+            return snapshots;
+        }
+
+        @Override
+        public long getParseTime() {
+            return this.time;
+        }
+
+        @Override
+        public long getRenders() {
+            return this.snapshot(null).getRenders();
+        }
+
+        @Override
+        public long getRenderTime() {
+            return this.snapshot(null).getTime();
+        }
+
+        @Override
+        public long getBytes() {
+            return this.snapshot(null).getBytes();
+        }
+
+        @Override
+        public long getUnresolved() {
+            return this.snapshot(null).getUnresolved();
+        }
+
+        @Override
+        public long[] getLatencies() {
+            return this.snapshot(null).getLatencies();
+        }
+
+        @Override
+        public String[] getStatistics() {
+            return this.snapshot().stream().map(String::valueOf).toArray(String[]::new);
+        }
+    }
+    
+    /**
+     * Statistic of the renderings of the model or a segment.
+     * The counters can be updated concurrently.
+     */
+    private static class Statistic {
+        
+        /** Upper limits of the latencies in nanoseconds */
+        private static final long[] LATENCIES = {10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L};
+        
+        /** Number of renderings */
+        private final LongAdder renders;
+        
+        /** Total time in nanoseconds */
+        private final LongAdder time;
+        
+        /** Emitted bytes */
+        private final LongAdder bytes;
+        
+        /** Placeholders without value */
+        private final LongAdder unresolved;
+        
+        /** Rows of the segment */
+        private final LongAdder rows;
+        
+        /** Number of renderings by latency */
+        private final LongAdder[] latencies;
+        
+        /** Constructor, creates a new empty statistic. */
+        private Statistic() {
+            
+            this.renders    = new LongAdder();
+            this.time       = new LongAdder();
+            this.bytes      = new LongAdder();
+            this.unresolved = new LongAdder();
+            this.rows       = new LongAdder();
+            this.latencies  = new LongAdder[LATENCIES.length +1];
+            for (int index = 0; index < this.latencies.length; index++)
+                this.latencies[index] = new LongAdder();
+        }
+        
+        /**
+         * Records a rendering.
+         * @param time       time in nanoseconds
+         * @param bytes      emitted bytes
+         * @param unresolved placeholders without value
+         */
+        private void record(long time, long bytes, int unresolved) {
+            
+            this.renders.increment();
+            this.time.add(time);
+            this.bytes.add(bytes);
+            this.unresolved.add(unresolved);
+            int index = 0;
+            while (index < LATENCIES.length
+                    && time > LATENCIES[index])
+                index++;
+            this.latencies[index].increment();
+        }
+    }
+    
+    /** Snapshot of the metrics of the model or a segment. */
+    public static class Snapshot {
+        
+        /** Segment, {@code null} for the model */
+        private final String scope;
+        
+        /** Number of renderings */
+        private final long renders;
+        
+        /** Total time in nanoseconds */
+        private final long time;
+        
+        /** Emitted bytes */
+        private final long bytes;
+        
+        /** Placeholders without value */
+        private final long unresolved;
+        
+        /** Rows of the segment */
+        private final long rows;
+        
+        /** Number of renderings by latency */
+        private final long[] latencies;
+        
+        /**
+         * Constructor, creates a new snapshot of a statistic.
+         * @param scope     segment, {@code null} for the model
+         * @param statistic statistic
+         */
+        private Snapshot(String scope, Statistic statistic) {
+            
+            this.scope      = scope;
+            this.renders    = statistic.renders.sum();
+            this.time       = statistic.time.sum();
+            this.bytes      = statistic.bytes.sum();
+            this.unresolved = statistic.unresolved.sum();
+            this.rows       = statistic.rows.sum();
+            this.latencies  = new long[statistic.latencies.length];
+            for (int index = 0; index < this.latencies.length; index++)
+                this.latencies[index] = statistic.latencies[index].sum();
+        }
+        
+        /**
+         * Returns the segment of the snapshot.
+         * @return the segment, {@code null} for the model
+         */
+        public String getScope() {
+            return this.scope;
+        }
+        
+        /**
+         * Returns the number of renderings.
+         * @return the number of renderings
+         */
+        public long getRenders() {
+            return this.renders;
+        }
+        
+        /**
+         * Returns the total time of the renderings.
+         * @return the total time in nanoseconds
+         */
+        public long getTime() {
+            return this.time;
+        }
+        
+        /**
+         * Returns the number of emitted bytes.
+         * @return the number of emitted bytes
+         */
+        public long getBytes() {
+            return this.bytes;
+        }
+        
+        /**
+         * Returns the number of placeholders without value.
+         * @return the number of placeholders without value
+         */
+        public long getUnresolved() {
+            return this.unresolved;
+        }
+        
+        /**
+         * Returns the number of rows of the segment from collections,
+         * iterators and streams.
+         * @return the number of rows of the segment
+         */
+        public long getRows() {
+            return this.rows;
+        }
+        
+        /**
+         * Returns the number of renderings by latency, up to 10&micro;s,
+         * 100&micro;s, 1ms, 10ms, 100ms, 1s and longer.
+         * @return the number of renderings by latency
+         */
+        public long[] getLatencies() {
+            return this.latencies.clone();
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%s renders=%d time=%d bytes=%d unresolved=%d rows=%d latencies=%s",
+                    this.scope != null ? this.scope : "[model]", Long.valueOf(this.renders), Long.valueOf(this.time),
+                    Long.valueOf(this.bytes), Long.valueOf(this.unresolved), Long.valueOf(this.rows),
+                    Arrays.toString(this.latencies));
+        }
+    }
+    
+    /** Byte range of an output. */
+    public static class Region {
+        
+        /** Offset of the byte range */
+        private final int offset;
+        
+        /** Length of the byte range */
+        private final int length;
+        
+        /**
+         * Constructor, creates a new byte range.
+         * @param offset offset of the byte range
+         * @param length length of the byte range
+         */
+        private Region(int offset, int length) {
+            
+            this.offset = offset;
+            this.length = length;
+        }
+        
+        /**
+         * Returns the offset of the byte range.
+         * @return the offset of the byte range
+         */
+        public int getOffset() {
+            return this.offset;
+        }
+        
+        /**
+         * Returns the length of the byte range.
+         * @return the length of the byte range
+         */
+        public int getLength() {
+            return this.length;
+        }
+        
+        @Override
+        public String toString() {
+            return this.offset + "+" + this.length;
+        }
+    }
+    
+    /**
+     * Property of an object (bean) as source of values.
+     * The properties of a class are determined once with the getters
+     * ({@code getName()}, {@code isName()}) and the fields, even those that
+     * are not public or in a superclass below the classes of Java itself,
+     * and cached per class. Getters take precedence over fields. The names of the
+     * properties are case insensitive like the placeholders.
+     */
+    private static class Property {
+        
+        /** Properties per class by name (lower case) */
+        private static final ClassValue<Map<String, Property>> PROPERTIES = new ClassValue<Map<String, Property>>() {
+            @Override
+            protected Map<String, Property> computeValue(Class<?> source) {
+                return Property.discover(source);
+            }
+        };
+        
+        /** Getter of the property */
+        private final Method method;
+        
+        /** Field of the property */
+        private final Field field;
+        
+        /**
+         * Constructor, creates a new property.
+         * @param method getter of the property (optional)
+         * @param field  field of the property (optional)
+         */
+        private Property(Method method, Field field) {
+            
+            this.method = method;
+            this.field  = field;
+        }
+        
+        /**
+         * Checks whether an object is used as object (bean) with properties.
+         * These are all objects whose classes are not part of Java itself
+         * ({@code java.*}, {@code javax.*}), no arrays and no enumerations.
+         * @param  object object
+         * @return {@code true} if the object is used as bean
+         */
+        private static boolean isBean(Object object) {
+            
+            if (object == null)
+                return false;
+            Class<?> source = object.getClass();
+            String name = source.getName();
+            return !source.isArray()
+                    && !source.isEnum()
+                    && !name.startsWith("java.")
+                    && !name.startsWith("javax.");
+        }
+        
+        /**
+         * Determines the properties of a class.
+         * @param  source class
+         * @return the properties by name (lower case)
+         */
+        private static Map<String, Property> discover(Class<?> source) {
+            
+            Map<String, Property> properties = new HashMap<>();
+            
+            //Fields of the classes of Java itself are not accessible and are
+            //not properties, so only the class hierarchy below is used.
+            for (Class<?> type = source;
+                    type != null
+                            && !type.getName().startsWith("java.")
+                            && !type.getName().startsWith("javax.");
+                    type = type.getSuperclass())
+                for (Field field : type.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())
+                            || field.isSynthetic())
+                        continue;
+                    try {field.setAccessible(true);
+                    } catch (RuntimeException exception) {
+                        continue;
+                    }
+                    properties.putIfAbsent(field.getName().toLowerCase(), new Property(null, field));
+                }
+            
+            for (Method method : source.getMethods()) {
+                if (Modifier.isStatic(method.getModifiers())
+                        || method.getParameterCount() != 0
+                        || method.getReturnType() == void.class
+                        || method.getDeclaringClass() == Object.class)
+                    continue;
+                String name = method.getName();
+                if (name.length() > 3
+                        && name.startsWith("get"))
+                    name = name.substring(3);
+                else if (name.length() > 2
+                        && name.startsWith("is")
+                        && method.getReturnType() == boolean.class)
+                    name = name.substring(2);
+                else continue;
+                try {method.setAccessible(true);
+                } catch (RuntimeException exception) {
+                    continue;
+                }
+                properties.put(name.toLowerCase(), new Property(method, null));
+            }
+            
+            return Collections.unmodifiableMap(properties);
+        }
+        
+        /**
+         * Returns the value of the property of an object.
+         * @param  object object
+         * @return the value of the property
+         */
+        private Object get(Object object) {
+            
+            try {
+                if (this.method != null)
+                    return this.method.invoke(object);
+                return this.field.get(object);
+            } catch (InvocationTargetException exception) {
+                if (exception.getCause() instanceof RuntimeException)
+                    throw (RuntimeException)exception.getCause();
+                throw new RuntimeException(exception.getCause());
+            } catch (IllegalAccessException exception) {
+                throw new RuntimeException(exception);
+            }
+        }
+    }
+    
+    /**
+     * Cache of compiled templates from files.
+     * The templates are loaded with {@link Template#parse(byte[])} and cached
+     * by their path. The cache is limited by the number of entries and the
+     * total size of the templates, when the limits are exceeded, the least
+     * recently used templates are removed. With each access, the time of the
+     * last modification and the size of the file are checked, if these have
+     * changed, the template is reloaded. The cache can be used by any number
+     * of threads at the same time.
+     */
+    public static class Cache {
+        
+        /** Maximum number of entries */
+        private final int entries;
+        
+        /** Maximum total size of the templates in bytes */
+        private final long volume;
+        
+        /** Cached templates in order of their use */
+        private final LinkedHashMap<Path, Entry> cache;
+        
+        /** Current total size of the templates in bytes */
+        private long size;
+        
+        /**
+         * Constructor, creates a new cache.
+         * @param entries maximum number of entries
+         * @param volume  maximum total size of the templates in bytes
+         */
+        public Cache(int entries, long volume) {
+            
+            if (entries <= 0)
+                throw new IllegalArgumentException("Invalid number of entries");
+            if (volume <= 0)
+                throw new IllegalArgumentException("Invalid volume");
+            
+            this.entries = entries;
+            this.volume  = volume;
+            this.cache   = new LinkedHashMap<>(16, 0.75f, true);
+        }
+        
+        /**
+         * Returns the compiled template for a file. If the template is not
+         * cached or the file has been changed, the template is (re)loaded.
+         * @param  path path of the file
+         * @return the compiled template
+         * @throws IOException
+         *     In case of faulty access to the file
+         */
+        public Template get(Path path)
+                throws IOException {
+            
+            Objects.requireNonNull(path, "Path required");
+            
+            path = path.toAbsolutePath().normalize();
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            
+            synchronized (this) {
+                Entry entry = this.cache.get(path);
+                if (entry != null
+                        && entry.size == attributes.size()
+                        && entry.modified.equals(attributes.lastModifiedTime()))
+                    return entry.template;
+            }
+
+            //The template is loaded outside the synchronization so that other
+            //accesses to the cache are not blocked.
+            Template template = Template.parse(Files.readAllBytes(path));
+            Entry entry = new Entry(template, attributes.lastModifiedTime(), attributes.size());
+            
+            synchronized (this) {
+                Entry existing = this.cache.remove(path);
+                if (existing != null)
+                    this.size -= existing.size;
+                if (entry.size > this.volume)
+                    return template;
+                this.cache.put(path, entry);
+                this.size += entry.size;
+                
+                //least recently used templates are removed if necessary
+                Iterator<Entry> iterator = this.cache.values().iterator();
+                while (iterator.hasNext()
+                        && (this.cache.size() > this.entries
+                                || this.size > this.volume)) {
+                    this.size -= iterator.next().size;
+                    iterator.remove();
+                }
+            }
+            
+            return template;
+        }
+        
+        /**
+         * Removes the template of a file from the cache.
+         * @param path path of the file
+         */
+        public synchronized void remove(Path path) {
+            
+            if (path == null)
+                return;
+            Entry entry = this.cache.remove(path.toAbsolutePath().normalize());
+            if (entry != null)
+                this.size -= entry.size;
+        }
+        
+        /** Removes all templates from the cache. */
+        public synchronized void clear() {
+            
+            this.cache.clear();
+            this.size = 0;
+        }
+        
+        /**
+         * Returns the number of cached templates.
+         * @return the number of cached templates
+         */
+        public synchronized int size() {
+            return this.cache.size();
+        }
+        
+        /**
+         * Returns the total size of the cached templates in bytes.
+         * @return the total size of the cached templates in bytes
+         */
+        public synchronized long volume() {
+            return this.size;
+        }
+        
+        /** Entry of the cache */
+        private static class Entry {
+            
+            /** Compiled template */
+            private final Template template;
+            
+            /** Time of the last modification of the file */
+            private final FileTime modified;
+            
+            /** Size of the file */
+            private final long size;
+            
+            /**
+             * Constructor, creates a new entry.
+             * @param template compiled template
+             * @param modified time of the last modification of the file
+             * @param size     size of the file
+             */
+            private Entry(Template template, FileTime modified, long size) {
+                
+                this.template = template;
+                this.modified = modified;
+                this.size     = size;
+            }
+        }
+    }
+
+    /**
+     * Cache for the results of {@link Generator#extract(String, Object)},
+     * e.g. for many identical rows of a listing. The results are cached by
+     * the template, the segment and the content of the values used in the
+     * segment. Only segments whose values are all immutable or byte arrays
+     * are cached. The cache is limited by the number of entries and the total
+     * size of the results, the least recently used results are removed
+     * first. The cache can be used by any number of threads at the same time.
+     */
+    public static class Memo {
+        
+        /** Immutable classes of values that can be used as a key */
+        private static final Set<Class<?>> IMMUTABLES = new HashSet<>(Arrays.asList(
+                String.class, Boolean.class, Character.class, Byte.class, Short.class,
+                Integer.class, Long.class, Float.class, Double.class,
+                BigInteger.class, BigDecimal.class));
+        
+        /** Maximum number of entries */
+        private final int entries;
+        
+        /** Maximum total size of the results in bytes */
+        private final long volume;
+        
+        /** Cached results in order of their use */
+        private final LinkedHashMap<Key, byte[]> cache;
+        
+        /** Current total size of the results in bytes */
+        private long size;
+        
+        /** Number of results found in the cache */
+        private long hits;
+        
+        /** Number of results not found in the cache */
+        private long misses;
+        
+        /**
+         * Constructor, creates a new cache.
+         * @param entries maximum number of entries
+         * @param volume  maximum total size of the results in bytes
+         */
+        public Memo(int entries, long volume) {
+            
+            if (entries <= 0)
+                throw new IllegalArgumentException("Invalid number of entries");
+            if (volume <= 0)
+                throw new IllegalArgumentException("Invalid volume");
+            
+            this.entries = entries;
+            this.volume  = volume;
+            this.cache   = new LinkedHashMap<>(16, 0.75f, true);
+        }
+        
+        /**
+         * Creates the key for a segment and its normalized values. Only the
+         * values used in the segment are taken into account.
+         * @param  template compiled template
+         * @param  scope    Segment
+         * @param  slots    normalized values
+         * @return the key, or {@code null} if a value used is not immutable
+         */
+        private static Key key(Template template, String scope, Object[] slots) {
+            
+            int[] references = template.references(scope);
+            Object[] values = new Object[references.length];
+            for (int index = 0; index < references.length; index++) {
+                Object value = slots[references[index]];
+                
+                //byte arrays are used by content, as a copy, because the
+                //caller can change them afterwards
+                if (value instanceof byte[])
+                    value = ((byte[])value).clone();
+                else if (value != null
+                        && !(value instanceof Enum)
+                        && !IMMUTABLES.contains(value.getClass()))
+                    return null;
+                values[index] = value;
+            }
+            return new Key(template, scope, values);
+        }
+        
+        /**
+         * Returns the cached result for a key.
+         * @param  key key
+         * @return the cached result, otherwise {@code null}
+         */
+        private synchronized byte[] get(Key key) {
+            
+            byte[] data = this.cache.get(key);
+            if (data != null)
+                this.hits++;
+            else this.misses++;
+            return data;
+        }
+        
+        /**
+         * Caches the result for a key. Results larger than the total size
+         * are not cached.
+         * @param key  key
+         * @param data result
+         */
+        private synchronized void put(Key key, byte[] data) {
+            
+            if (data.length > this.volume)
+                return;
+            byte[] existing = this.cache.put(key, data);
+            if (existing != null)
+                this.size -= existing.length;
+            this.size += data.length;
+            
+            //least recently used results are removed if necessary
+            Iterator<byte[]> iterator = this.cache.values().iterator();
+            while (iterator.hasNext()
+                    && (this.cache.size() > this.entries
+                            || this.size > this.volume)) {
+                this.size -= iterator.next().length;
+                iterator.remove();
+            }
+        }
+        
+        /** Removes all results from the cache. */
+        public synchronized void clear() {
+            
+            this.cache.clear();
+            this.size = 0;
+        }
+        
+        /**
+         * Returns the number of cached results.
+         * @return the number of cached results
+         */
+        public synchronized int size() {
+            return this.cache.size();
+        }
+        
+        /**
+         * Returns the total size of the cached results in bytes.
+         * @return the total size of the cached results in bytes
+         */
+        public synchronized long volume() {
+            return this.size;
+        }
+        
+        /**
+         * Returns the number of results found in the cache.
+         * @return the number of results found in the cache
+         */
+        public synchronized long hits() {
+            return this.hits;
+        }
+        
+        /**
+         * Returns the number of results not found in the cache.
+         * Segments with values that are not immutable are not counted.
+         * @return the number of results not found in the cache
+         */
+        public synchronized long misses() {
+            return this.misses;
+        }
+        
+        /** Key of a cached result */
+        private static class Key {
+            
+            /** Compiled template */
+            private final Template template;
+            
+            /** Segment */
+            private final String scope;
+            
+            /** Values used in the segment */
+            private final Object[] values;
+            
+            /** Hash code of the content */
+            private final int hash;
+            
+            /**
+             * Constructor, creates a new key.
+             * @param template compiled template
+             * @param scope    Segment
+             * @param values   values used in the segment
+             */
+            private Key(Template template, String scope, Object[] values) {
+                
+                this.template = template;
+                this.scope    = scope;
+                this.values   = values;
+                this.hash     = (System.identityHashCode(template) *31 +scope.hashCode()) *31
+                        +Arrays.deepHashCode(values);
+            }
+            
+            @Override
+            public int hashCode() {
+                return this.hash;
+            }
+            
+            @Override
+            public boolean equals(Object object) {
+                
+                if (!(object instanceof Key))
+                    return false;
+                Key key = (Key)object;
+                return this.template == key.template
+                        && this.hash == key.hash
+                        && this.scope.equals(key.scope)
+                        && Arrays.deepEquals(this.values, key.values);
+            }
+        }
+    }
+    
+    /**
+     * Encoder for the values of placeholders ({@code #[value:encoder]}).
+     * The encoder writes the value in one pass directly into the output,
+     * unchanged parts of the value are passed on as byte spans and are not
+     * copied. Encoders are used by any number of threads at the same time and
+     * must therefore be thread-safe.
+     */
+    @FunctionalInterface
+    public interface Encoder {
+        
+        /** Encoder for HTML, escapes {@code & < > " '} as entities. */
+        Encoder HTML = (data, offset, length, output) ->
+                Escape.encode(data, offset, length, output, Escape.MARKUP);
+        
+        /** Encoder for XML, escapes {@code & < > " '} as entities. */
+        Encoder XML = HTML;
+
+        /**
+         * Encoder for JSON strings, escapes {@code " \} and control
+         * characters.
+         */
+        Encoder JSON = (data, offset, length, output) ->
+                Escape.encode(data, offset, length, output, Escape.JSON);
+        
+        /**
+         * Encoder for URLs (percent-encoding), only the characters
+         * {@code A-Z a-z 0-9 -._~} are not encoded.
+         */
+        Encoder URL = (data, offset, length, output) ->
+                Escape.encode(data, offset, length, output, Escape.URL);
+        
+        /**
+         * Encodes a value and writes it into the output.
+         * @param data   bytes of the value
+         * @param offset offset of the value
+         * @param length length of the value
+         * @param output output
+         */
+        void encode(byte[] data, int offset, int length, Output output);
+    }
+    
+    /**
+     * Converter for values of a Java type, which writes the value directly
+     * into the output instead of using {@link String#valueOf(Object)}.
+     * Converters are registered per type with
+     * {@link Template#converter(Class, Converter)}. For {@link Integer},
+     * {@link Long}, {@link Short} and {@link Byte}, {@link #NUMBER} is used by
+     * default. Converters are used by any number of threads at the same time
+     * and must therefore be thread-safe.
+     * @param <T> type of the values
+     */
+    @FunctionalInterface
+    public interface Converter<T> {
+        
+        /**
+         * Converter for integers ({@link Number#longValue()}), which writes
+         * the digits without creating a string.
+         */
+        Converter<Number> NUMBER = (value, charset, output) ->
+                Transcoder.encode(value.longValue(), charset, output);
+        
+        /**
+         * Creates a converter for dates ({@link Date}) and temporal values
+         * ({@link TemporalAccessor}, e.g. {@link Instant}) with a formatter.
+         * Without a zone, the formatter uses the zone of the system. The
+         * formatter is created once and is thread-safe, the text is written
+         * directly into the output.
+         * @param  formatter formatter
+         * @return the created converter
+         */
+        static Converter<Object> format(DateTimeFormatter formatter) {
+            
+            Objects.requireNonNull(formatter, "Formatter required");
+            
+            DateTimeFormatter format = formatter.getZone() != null ? formatter
+                    : formatter.withZone(ZoneId.systemDefault());
+            return (value, charset, output) -> {
+                if (value instanceof Date)
+                    value = Instant.ofEpochMilli(((Date)value).getTime());
+                Transcoder.encode((TemporalAccessor)value, format, charset, output);
+            };
+        }
+        
+        /**
+         * Converts a value and writes it into the output.
+         * @param value   value
+         * @param charset charset of the template
+         * @param output  output
+         */
+        void convert(T value, Charset charset, Output output);
+    }
+    
+    /**
+     * Escape tables of the standard encoders.
+     * Each table contains the escape sequence for each byte, or
+     * {@code null} if the byte remains unchanged.
+     */
+    private static class Escape {
+        
+        /** Escape sequences for HTML and XML */
+        private static final byte[][] MARKUP = new byte[256][];
+        
+        /** Escape sequences for JSON */
+        private static final byte[][] JSON = new byte[256][];
+        
+        /** Escape sequences for URLs */
+        private static final byte[][] URL = new byte[256][];
+        
+        static {
+            
+            MARKUP['&']  = "&amp;".getBytes(StandardCharsets.ISO_8859_1);
+            MARKUP['<']  = "&lt;".getBytes(StandardCharsets.ISO_8859_1);
+            MARKUP['>']  = "&gt;".getBytes(StandardCharsets.ISO_8859_1);
+            MARKUP['"']  = "&quot;".getBytes(StandardCharsets.ISO_8859_1);
+            MARKUP['\''] = "&#39;".getBytes(StandardCharsets.ISO_8859_1);
+            
+            for (int digit = 0; digit < 0x20; digit++)
+                JSON[digit] = String.format("\\u%04x", digit).getBytes(StandardCharsets.ISO_8859_1);
+            JSON['\b'] = "\\b".getBytes(StandardCharsets.ISO_8859_1);
+            JSON['\f'] = "\\f".getBytes(StandardCharsets.ISO_8859_1);
+            JSON['\n'] = "\\n".getBytes(StandardCharsets.ISO_8859_1);
+            JSON['\r'] = "\\r".getBytes(StandardCharsets.ISO_8859_1);
+            JSON['\t'] = "\\t".getBytes(StandardCharsets.ISO_8859_1);
+            JSON['"']  = "\\\"".getBytes(StandardCharsets.ISO_8859_1);
+            JSON['\\'] = "\\\\".getBytes(StandardCharsets.ISO_8859_1);
+
+            for (int digit = 0; digit < 256; digit++)
+                if (!Lexer.isWord(digit)
+                        && digit != '-'
+                        && digit != '.'
+                        && digit != '~')
+                    URL[digit] = String.format("%%%02X", digit).getBytes(StandardCharsets.ISO_8859_1);
+        }
+        
+        /**
+         * Writes a value with an escape table into the output. Unchanged
+         * parts are passed on as byte spans, only the escape sequences are
+         * inserted.
+         * @param data   bytes of the value
+         * @param offset offset of the value
+         * @param length length of the value
+         * @param output output
+         * @param table  escape table
+         */
+        private static void encode(byte[] data, int offset, int length, Output output, byte[][] table) {
+            
+            int limit = offset +length;
+            for (int cursor = offset; cursor < limit; cursor++) {
+                byte[] escape = table[data[cursor] & 0xFF];
+                if (escape == null)
+                    continue;
+                if (cursor > offset)
+                    output.append(data, offset, cursor -offset);
+                output.append(escape);
+                offset = cursor +1;
+            }
+            if (offset < limit)
+                output.append(data, offset, limit -offset);
+        }
+    }
+    
+    /**
+     * Encoding of text values with the charset of the template.
+     * Texts are encoded in portions into a buffer per thread and written to
+     * the output as transient byte spans. Characters that can be mapped
+     * directly (ASCII for UTF-8 and ASCII, Latin-1 for ISO-8859-1) are
+     * written without encoder, otherwise a reused {@link CharsetEncoder} per
+     * thread and charset is used. Characters that cannot be encoded are
+     * replaced, as with {@link String#getBytes(Charset)}.
+     */
+    private static class Transcoder {
+        
+        /** Transcoders per thread */
+        private static final ThreadLocal<Transcoder> TRANSCODERS = ThreadLocal.withInitial(Transcoder::new);
+        
+        /** Buffer for the encoded portions */
+        private final byte[] buffer;
+        
+        /** Reused encoders per charset */
+        private final Map<Charset, CharsetEncoder> encoders;
+        
+        /** Buffer for formatted texts */
+        private final StringBuilder text;
+        
+        /** Constructor, creates a new transcoder. */
+        private Transcoder() {
+            
+            this.buffer   = new byte[1024];
+            this.encoders = new HashMap<>();
+            this.text     = new StringBuilder();
+        }
+        
+        /**
+         * Writes an integer as decimal digits into the output, without
+         * creating a string. Charsets that are not ASCII-compatible use the
+         * string representation.
+         * @param value   integer
+         * @param charset charset
+         * @param output  output
+         */
+        private static void encode(long value, Charset charset, Output output) {
+            
+            if (Transcoder.range(charset) <= 0
+                    || value == Long.MIN_VALUE) {
+                Transcoder.encode(String.valueOf(value), charset, output);
+                return;
+            }
+            
+            byte[] buffer = TRANSCODERS.get().buffer;
+            int cursor = 20;
+            long digits = Math.abs(value);
+            do {buffer[--cursor] = (byte)('0' + digits % 10);
+            } while ((digits /= 10) > 0);
+            if (value < 0)
+                buffer[--cursor] = '-';
+            output.copy(buffer, cursor, 20 -cursor);
+        }
+        
+        /**
+         * Formats a temporal value and writes the text into the output. The
+         * text is formatted into a reused buffer.
+         * @param value     temporal value
+         * @param formatter formatter
+         * @param charset   charset
+         * @param output    output
+         */
+        private static void encode(TemporalAccessor value, DateTimeFormatter formatter,
+                Charset charset, Output output) {
+            
+            StringBuilder text = TRANSCODERS.get().text;
+            text.setLength(0);
+            formatter.formatTo(value, text);
+            Transcoder.encode(text, charset, output);
+        }
+        
+        /**
+         * Determines the range of characters that can be written directly
+         * as bytes for a charset.
+         * @param  charset charset
+         * @return the upper limit (exclusive) of the characters
+         */
+        private static int range(Charset charset) {
+            
+            if (charset.equals(StandardCharsets.ISO_8859_1))
+                return 0x100;
+            if (charset.equals(StandardCharsets.UTF_8)
+                    || charset.equals(StandardCharsets.US_ASCII))
+                return 0x80;
+            return 0;
+        }
+        
+        /**
+         * Encodes a text as a byte array.
+         * @param  text    text
+         * @param  charset charset
+         * @return the encoded text
+         */
+        private static byte[] encode(String text, Charset charset) {
+            
+            int range  = Transcoder.range(charset);
+            int length = text.length();
+            byte[] data = new byte[length];
+            for (int index = 0; index < length; index++) {
+                char digit = text.charAt(index);
+                if (digit >= range)
+                    return text.getBytes(charset);
+                data[index] = (byte)digit;
+            }
+            return data;
+        }
+        
+        /**
+         * Encodes a text and writes it as transient byte spans into the
+         * output.
+         * @param text    text
+         * @param charset charset
+         * @param output  output
+         */
+        private static void encode(CharSequence text, Charset charset, Output output) {
+            
+            Transcoder transcoder = TRANSCODERS.get();
+            byte[] buffer = transcoder.buffer;
+            
+            int range  = Transcoder.range(charset);
+            int length = text.length();
+            int cursor = 0;
+            int count  = 0;
+            for (char digit; cursor < length && (digit = text.charAt(cursor)) < range; cursor++) {
+                if (count >= buffer.length) {
+                    output.copy(buffer, 0, count);
+                    count = 0;
+                }
+                buffer[count++] = (byte)digit;
+            }
+            output.copy(buffer, 0, count);
+            if (cursor >= length)
+                return;
+            
+            //The remaining characters are encoded with the encoder.
+            CharsetEncoder encoder = transcoder.encoders.get(charset);
+            if (encoder == null) {
+                encoder = charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+                transcoder.encoders.put(charset, encoder);
+            }
+            encoder.reset();
+            CharBuffer input = CharBuffer.wrap(text, cursor, length);
+            ByteBuffer bytes = ByteBuffer.wrap(buffer);
+            for (boolean flush = false;;) {
+                CoderResult result = flush ? encoder.flush(bytes)
+                        : encoder.encode(input, bytes, true);
+                if (result.isOverflow()) {
+                    output.copy(buffer, 0, bytes.position());
+                    bytes.clear();
+                    continue;
+                }
+                if (flush)
+                    break;
+                flush = true;
+            }
+            output.copy(buffer, 0, bytes.position());
+        }
+    }
+    
+    /**
+     * Lexer for the placeholders of a model at byte level.
+     * The lexer works without allocations per placeholder. The nesting of
+     * placeholders is managed with a small stack that grows if necessary and
+     * is reused for all placeholders of a model. The search for the start of
+     * placeholders in long literals is done word by word (8 bytes).
+     */
+    private static class Lexer {
+        
+        /** Pattern of the character # in each byte of a word */
+        private static final long PATTERN_HASH = 0x2323232323232323L;
+        
+        /** Pattern of the low bits in each byte of a word */
+        private static final long PATTERN_LOW = 0x0101010101010101L;
+
+        /** Pattern of the high bits in each byte of a word */
+        private static final long PATTERN_HIGH = 0x8080808080808080L;
+        
+        /**
+         * Model, read with absolute positions and as words (little endian).
+         * The model can be based on a byte array or a mapped file.
+         */
+        private final ByteBuffer model;
+        
+        /** Stack with the levels of nested placeholders */
+        private byte[] stack;
+        
+        /**
+         * Constructor, creates a new lexer for a model.
+         * @param model model
+         */
+        private Lexer(ByteBuffer model) {
+            
+            this.model = model.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            this.stack = new byte[16];
+        }
+        
+        /**
+         * Returns a byte span of the model as text. Names are restricted to
+         * ASCII, so that each byte corresponds to one character.
+         * @param  offset offset of the byte span
+         * @param  length length of the byte span
+         * @return the byte span as text
+         */
+        private String text(int offset, int length) {
+            
+            char[] text = new char[length];
+            for (int index = 0; index < length; index++)
+                text[index] = (char)(this.model.get(offset +index) & 0xFF);
+            return new String(text);
+        }
+        
+        /**
+         * Determines the position of the next placeholder ({@code #[}) from
+         * the specified position. Long literals are searched word by word for
+         * the character {@code #}. 
+         * @param  cursor position
+         * @param  limit  end of the model (fragment)
+         * @return the position of the next placeholder, otherwise -1
+         */
+        private int locate(int cursor, int limit) {
+            
+            while (cursor +8 <= limit) {
+                
+                //Bytes with the character # become 0 and are found by the
+                //borrow into the high bit. The lowest hit is always exact.
+                long word = this.model.getLong(cursor) ^ PATTERN_HASH;
+                word = (word -PATTERN_LOW) & ~word & PATTERN_HIGH;
+                if (word == 0) {
+                    cursor += 8;
+                    continue;
+                }
+                cursor += Long.numberOfTrailingZeros(word) >>> 3;
+                if (cursor +1 < limit
+                        && this.model.get(cursor +1) == '[')
+                    return cursor;
+                cursor++;
+            }
+            
+            for (; cursor +1 < limit; cursor++)
+                if (this.model.get(cursor) == '#'
+                        && this.model.get(cursor +1) == '[')
+                    return cursor;
+            return -1;
+        }
+        
+        /**
+         * Determines the length of the placeholder at the specified position.
+         * If the placeholder is not completed, the scan is hungry and the
+         * length up to the end of the model (fragment) is returned.
+         * @param  cursor position of the placeholder
+         * @param  limit  end of the model (fragment)
+         * @return the length of the complete placeholder with possibly
+         *         contained segments
+         */
+        private int measure(int cursor, int limit) {
+            
+            ByteBuffer model = this.model;
+            
+            int offset = cursor;
+            int deep   = 0;
+            
+            while (cursor < limit) {
+
+                //The current level is determined.
+                int level = deep > 0 ? this.stack[deep] : 0;
+                
+                byte digit = model.get(cursor);
+                
+                //Phase 1: Recognition of the start of a placeholder
+                //  - supported formats: #[...], #[...[[...]]]
+                //  - all placeholders begin with #[...
+                //A placeholder can only begin if no stack and therefore no
+                //placeholder exists or if a segment placeholder has been
+                //determined before. In both cases the level is not equal to 1
+                //and another stack with level 1 starts.
+                if (digit == '#'
+                        && level != 1
+                        && cursor +1 < limit
+                        && model.get(cursor +1) == '[') {
+                    if (++deep >= this.stack.length)
+                        this.stack = Arrays.copyOf(this.stack, this.stack.length *2);
+                    this.stack[deep] = 1;
+                    cursor += 2;
+                    continue;
+                }
+                
+                //Phase 1A: Qualification of a segment placeholder
+                //  - active level 1 is expected
+                //  - character string [[ is found
+                //The current stack is set to level 2.
+                if (digit == '['
+                        && level == 1
+                        && cursor +1 < limit
+                        && model.get(cursor +1) == '[') {
+                    this.stack[deep] = 2;
+                    cursor += 2;
+                    continue;
+                }
+                
+                //Phase 2: Detecting the end of a detected placeholder
+                //The level must be 1 and the character ] must be found.
+                //Then the current stack is removed.
+                if (digit == ']'
+                        && level == 1) {
+                    if (--deep <= 0)
+                        break;
+                    cursor += 1;
+                    continue;
+                }
+                
+                //Phase 2A: Detecting the end of a detected segment placeholder
+                //The level must be 2 and the character string ]]] must be
+                //found. Then the current stack is removed.
+                if (digit == ']'
+                        && level == 2
+                        && cursor +2 < limit
+                        && model.get(cursor +1) == ']'
+                        && model.get(cursor +2) == ']') {
+                    cursor += 2;
+                    if (--deep <= 0)
+                        break;
+                    cursor += 1;
+                    continue;
+                }
+                
+                cursor++;
+            }
+            
+            //Case 1: The stack is not empty
+            //Thus, a placeholder was detected which is not completed.
+            //The scan is hungry and assumes an incomplete placeholder.
+            if (deep > 0)
+                return limit -offset;
+            
+            //Case 2: The stack is empty
+            //The placeholder was determined completely.
+            return cursor -offset +1;
+        }
+        
+        /**
+         * Checks whether a byte is a character of a name ({@code \w}).
+         * @param  digit byte
+         * @return {@code true} if the byte is a character of a name
+         */
+        private static boolean isWord(int digit) {
+            return (digit >= 'a' && digit <= 'z')
+                    || (digit >= 'A' && digit <= 'Z')
+                    || (digit >= '0' && digit <= '9')
+                    || digit == '_';
+        }
+        
+        /**
+         * Determines the end of a valid name from the specified position.
+         * A name must begin with a letter, may contain the characters
+         * {@code a-z A-Z 0-9 _-} and must not end with {@code -}.
+         * @param  model  model
+         * @param  cursor position
+         * @param  limit  end of the model (fragment)
+         * @return the position after the name, otherwise -1
+         */
+        private static int identify(ByteBuffer model, int cursor, int limit) {
+
+            if (cursor >= limit
+                    || !((model.get(cursor) >= 'a' && model.get(cursor) <= 'z')
+                            || (model.get(cursor) >= 'A' && model.get(cursor) <= 'Z')))
+                return -1;
+            int index = cursor +1;
+            while (index < limit
+                    && (model.get(index) == '-'
+                            || Lexer.isWord(model.get(index))))
+                index++;
+            if (model.get(index -1) == '-')
+                return -1;
+            return index;
+        }
+        
+        /**
+         * Checks whether a string is a valid name.
+         * @param  name name
+         * @return {@code true} if the string is a valid name
+         */
+        private static boolean isName(String name) {
+            
+            int length = name.length();
+            if (length <= 0
+                    || !((name.charAt(0) >= 'a' && name.charAt(0) <= 'z')
+                            || (name.charAt(0) >= 'A' && name.charAt(0) <= 'Z'))
+                    || name.charAt(length -1) == '-')
+                return false;
+            for (int index = 1; index < length; index++)
+                if (name.charAt(index) != '-'
+                        && !Lexer.isWord(name.charAt(index)))
+                    return false;
+            return true;
+        }
+        
+        /**
+         * Checks whether a valid hexadecimal constant {@code #[0x...]} is
+         * located in the specified range.
+         * @param  model  model
+         * @param  cursor start of the placeholder
+         * @param  limit  end of the placeholder
+         * @return {@code true} if the range is a hexadecimal constant
+         */
+        private static boolean isConstant(ByteBuffer model, int cursor, int limit) {
+            
+            int length = limit -cursor -5;
+            if (length < 2
+                    || length % 2 != 0
+                    || model.get(cursor +2) != '0'
+                    || (model.get(cursor +3) != 'x' && model.get(cursor +3) != 'X')
+                    || model.get(limit -1) != ']')
+                return false;
+            for (int index = cursor +4; index < limit -1; index++)
+                if (Character.digit(model.get(index), 16) < 0)
+                    return false;
+            return true;
+        }
+    }
+    
+    /**
+     * Instruction of the compiled model.
+     * The model and the segments are compiled once into a flat list of
+     * instructions, which are then used for filling and rendering.
+     */
+    private static class Instruction {
+        
+        /** Types of instructions */
+        private enum Type {
+            
+            /** literal byte span */
+            LITERAL,
+            
+            /** pre-decoded constant {@code #[0x...]} */
+            CONSTANT,
+            
+            /** placeholder of a value */
+            VALUE,
+            
+            /** placeholder of a scope/segment */
+            SCOPE
+        }
+        
+        /** Type of instruction */
+        private final Type type;
+        
+        /** Name of the placeholder (lower case) */
+        private final String name;
+        
+        /** Name of the encoder of the placeholder (lower case) */
+        private final String encoding;
+        
+        /** Encoder of the placeholder */
+        private final Encoder encoder;
+        
+        /** Slot of the placeholder name for the values */
+        private final int slot;
+        
+        /** Data of literal or constant */
+        private final byte[] data;
+        
+        /** Data of a literal from a mapped model (alternative to data) */
+        private final ByteBuffer buffer;
+
+        /** Offset of the byte span in the data */
+        private final int offset;
+
+        /** Length of the byte span in the data */
+        private final int length;
+        
+        /** The name of the placeholder occurs several times in the list */
+        private final boolean repeated;
+        
+        /**
+         * Constructor, creates a new instruction.
+         * @param type     type of instruction
+         * @param name     name of the placeholder
+         * @param encoding name of the encoder of the placeholder
+         * @param encoder  encoder of the placeholder
+         * @param slot     slot of the placeholder name
+         * @param data     data of literal or constant
+         * @param buffer   data of a literal from a mapped model
+         * @param offset   offset of the byte span
+         * @param length   length of the byte span
+         * @param repeated   name of the placeholder occurs several times
+         */
+        private Instruction(Type type, String name, String encoding, Encoder encoder,
+                int slot, byte[] data, ByteBuffer buffer, int offset, int length, boolean repeated) {
+            
+            this.type     = type;
+            this.name     = name;
+            this.encoding = encoding;
+            this.encoder  = encoder;
+            this.slot     = slot;
+            this.data     = data;
+            this.buffer   = buffer;
+            this.offset   = offset;
+            this.length   = length;
+            this.repeated = repeated;
+        }
+        
+        /**
+         * Creates a literal instruction as byte span.
+         * @param  data   data
+         * @param  offset offset of the byte span
+         * @param  length length of the byte span
+         * @return the created instruction
+         */
+        private static Instruction literal(byte[] data, int offset, int length) {
+            return new Instruction(Type.LITERAL, null, null, null, -1, data, null, offset, length, false);
+        }
+        
+        /**
+         * Creates a literal instruction as byte span of a model. For models
+         * based on a byte array the array is referenced, otherwise (e.g. for
+         * mapped files) the buffer, so that the literal is not copied.
+         * @param  model  model
+         * @param  offset offset of the byte span
+         * @param  length length of the byte span
+         * @return the created instruction
+         */
+        private static Instruction literal(ByteBuffer model, int offset, int length) {
+            if (model.hasArray())
+                return Instruction.literal(model.array(), model.arrayOffset() +offset, length);
+            return new Instruction(Type.LITERAL, null, null, null, -1, null, model, offset, length, false);
+        }
+        
+        /**
+         * Creates a literal instruction.
+         * @param  data data
+         * @return the created instruction
+         */
+        private static Instruction literal(byte[] data) {
+            return Instruction.literal(data, 0, data.length);
+        }
+
+        /**
+         * Creates a constant instruction with pre-decoded data.
+         * @param  data pre-decoded data
+         * @return the created instruction
+         */
+        private static Instruction constant(byte[] data) {
+            return new Instruction(Type.CONSTANT, null, null, null, -1, data, null, 0, data.length, false);
+        }
+
+        /**
+         * Creates a placeholder instruction for a value.
+         * @param  name     name of the placeholder
+         * @param  encoding name of the encoder (optional)
+         * @param  encoder  encoder (optional)
+         * @return the created instruction
+         */
+        private static Instruction placeholder(String name, String encoding, Encoder encoder) {
+            return new Instruction(Type.VALUE, name, encoding, encoder, -1, null, null, 0, 0, false);
+        }
+        
+        /**
+         * Creates a qualified placeholder instruction for a value or a
+         * scope/segment with the slot of the name based on a placeholder
+         * instruction. The encoder is taken over.
+         * @param  placeholder placeholder instruction
+         * @param  scope       {@code true} for a scope/segment
+         * @param  slot        slot of the placeholder name
+         * @return the created instruction
+         */
+        private static Instruction qualify(Instruction placeholder, boolean scope, int slot) {
+            return new Instruction(scope ? Type.SCOPE : Type.VALUE, placeholder.name,
+                    placeholder.encoding, placeholder.encoder, slot, null, null, 0, 0, false);
+        }
+        
+        /**
+         * Creates a placeholder instruction whose name occurs several times
+         * in the list of instructions based on a placeholder instruction.
+         * @param  placeholder placeholder instruction
+         * @return the created instruction
+         */
+        private static Instruction repeat(Instruction placeholder) {
+            return new Instruction(placeholder.type, placeholder.name, placeholder.encoding,
+                    placeholder.encoder, placeholder.slot, null, null, 0, 0, true);
+        }
+        
+        /**
+         * Writes the byte span of a literal or constant into the output.
+         * @param output output
+         */
+        private void write(Output output) {
+            if (this.buffer != null)
+                output.append(this.buffer, this.offset, this.length);
+            else output.append(this.data, this.offset, this.length);
+        }
+    }
+    
+    /**
+     * Task for the parallel rendering of the rows of a segment.
+     * The range of rows is divided until the size of a chunk is reached.
+     * Each chunk is rendered into its own assembly and the assemblies are
+     * combined in the order of the rows.
+     */
+    private static class Fork extends RecursiveTask<Assembly> {
+        
+        private static final long serialVersionUID = 1L;
+
+        /** Generator of the segment */
+        private final Generator generator;
+        
+        /** Placeholder of the segment */
+        private final Instruction scope;
+        
+        /** Rows of the segment */
+        private final List rows;
+        
+        /** Start of the range (inclusive) */
+        private final int from;
+        
+        /** End of the range (exclusive) */
+        private final int to;
+        
+        /** Size of a chunk */
+        private final int chunk;
+
+        /**
+         * Constructor, creates a new task.
+         * @param generator generator of the segment
+         * @param scope     placeholder of the segment
+         * @param rows      rows of the segment
+         * @param from      start of the range (inclusive)
+         * @param to        end of the range (exclusive)
+         * @param chunk     size of a chunk
+         */
+        private Fork(Generator generator, Instruction scope, List rows, int from, int to, int chunk) {
+            
+            this.generator = generator;
+            this.scope     = scope;
+            this.rows      = rows;
+            this.from      = from;
+            this.to        = to;
+            this.chunk     = chunk;
+        }
+
+        @Override
+        protected Assembly compute() {
+            
+            Assembly assembly = new Assembly();
+            if (this.to -this.from <= this.chunk) {
+                for (int index = this.from; index < this.to; index++)
+                    this.generator.assemble(this.scope, this.rows.get(index), assembly);
+                return assembly;
+            }
+            
+            int middle = (this.from +this.to) >>> 1;
+            Fork left  = new Fork(this.generator, this.scope, this.rows, this.from, middle, this.chunk);
+            Fork right = new Fork(this.generator, this.scope, this.rows, middle, this.to, this.chunk);
+            right.fork();
+            left.compute().transfer(assembly);
+            right.join().transfer(assembly);
+            return assembly;
+        }
+    }
+    
+    /**
+     * Output of rendering, receives the byte spans in the order of output.
+     * The byte spans are possibly only referenced and must therefore not be
+     * changed afterwards.
+     */
+    public interface Output {
+        
+        /**
+         * Appends a byte span to the output.
+         * @param data   bytes
+         * @param offset offset of the byte span
+         * @param length length of the byte span
+         */
+        void append(byte[] data, int offset, int length);
+        
+        /**
+         * Appends bytes as byte span to the output.
+         * @param data bytes
+         */
+        default void append(byte[] data) {
+            this.append(data, 0, data.length);
+        }
+        
+        /**
+         * Appends a transient byte span to the output. Unlike
+         * {@link #append(byte[], int, int)}, the data is copied if necessary
+         * and can be reused afterwards.
+         * @param data   bytes
+         * @param offset offset of the byte span
+         * @param length length of the byte span
+         */
+        default void copy(byte[] data, int offset, int length) {
+            this.append(Arrays.copyOfRange(data, offset, offset +length));
+        }
+        
+        /**
+         * Appends a text encoded with a charset as transient byte spans to
+         * the output.
+         * @param text    text
+         * @param charset charset
+         */
+        default void append(CharSequence text, Charset charset) {
+            Transcoder.encode(text, charset, this);
+        }
+        
+        /**
+         * Appends a byte span of a buffer (e.g. of a mapped file) to the
+         * output. The position and limit of the buffer are not used and not
+         * changed. Without a special implementation the byte span is copied.
+         * @param data   buffer
+         * @param offset offset of the byte span
+         * @param length length of the byte span
+         */
+        default void append(ByteBuffer data, int offset, int length) {
+            
+            byte[] bytes = new byte[length];
+            Generator.slice(data, offset, length).get(bytes);
+            this.append(bytes);
+        }
+    }
+    
+    /**
+     * Assembly of the output as a chain of byte spans (rope).
+     * The byte spans of literals, constants and values are only referenced
+     * and copied exactly once when the final output is created. So the effort
+     * grows linearly with the size of the output, regardless of the number of
+     * placeholders.
+     */
+    private static class Assembly implements Output {
+        
+        /** Data of the byte spans */
+        private byte[][] chunks;
+        
+        /** Buffers of the byte spans (alternative to the data) */
+        private ByteBuffer[] buffers;
+        
+        /** Offsets of the byte spans */
+        private int[] offsets;
+        
+        /** Lengths of the byte spans */
+        private int[] lengths;
+        
+        /** Number of byte spans */
+        private int count;
+        
+        /** Total size of all byte spans */
+        private int size;
+        
+        /** Block for copied byte spans */
+        private byte[] block;
+        
+        /** Used bytes in the block */
+        private int used;
+        
+        /** Constructor, creates a new empty assembly. */
+        private Assembly() {
+            this(16);
+        }
+        
+        /**
+         * Constructor, creates a new empty assembly for an expected number of
+         * byte spans.
+         * @param capacity expected number of byte spans
+         */
+        private Assembly(int capacity) {
+            
+            capacity = Math.max(capacity, 16);
+            this.chunks  = new byte[capacity][];
+            this.buffers = new ByteBuffer[capacity];
+            this.offsets = new int[capacity];
+            this.lengths = new int[capacity];
+        }
+        
+        /**
+         * Appends a byte span. The data is only referenced and must therefore
+         * not be changed until the output has been created.
+         * @param data   bytes
+         * @param offset offset of the byte span
+         * @param length length of the byte span
+         */
+        @Override
+        public void append(byte[] data, int offset, int length) {
+            
+            if (length <= 0)
+                return;
+            if (this.size +length < 0)
+                throw new OutOfMemoryError("Output exceeds the maximum array size");
+            
+            //directly following byte spans of the same data are combined
+            if (this.count > 0
+                    && this.chunks[this.count -1] == data
+                    && this.offsets[this.count -1] +this.lengths[this.count -1] == offset) {
+                this.lengths[this.count -1] += length;
+                this.size += length;
+                return;
+            }
+            
+            this.expand();
+            this.chunks[this.count]  = data;
+            this.offsets[this.count] = offset;
+            this.lengths[this.count] = length;
+            this.count++;
+            this.size += length;
+        }
+        
+        /**
+         * Appends a byte span of a buffer. The buffer is only referenced and
+         * must therefore not be changed until the output has been created.
+         * @param data   buffer
+         * @param offset offset of the byte span
+         * @param length length of the byte span
+         */
+        @Override
+        public void append(ByteBuffer data, int offset, int length) {
+            
+            if (length <= 0)
+                return;
+            if (this.size +length < 0)
+                throw new OutOfMemoryError("Output exceeds the maximum array size");
+            
+            //directly following byte spans of the same buffer are combined
+            if (this.count > 0
+                    && this.buffers[this.count -1] == data
+                    && this.offsets[this.count -1] +this.lengths[this.count -1] == offset) {
+                this.lengths[this.count -1] += length;
+                this.size += length;
+                return;
+            }
+
+            this.expand();
+            this.buffers[this.count] = data;
+            this.offsets[this.count] = offset;
+            this.lengths[this.count] = length;
+            this.count++;
+            this.size += length;
+        }
+        
+        /** Ensures the capacity for another byte span. */
+        private void expand() {
+            
+            if (this.count < this.chunks.length)
+                return;
+            int capacity = this.chunks.length *2;
+            this.chunks  = Arrays.copyOf(this.chunks, capacity);
+            this.buffers = Arrays.copyOf(this.buffers, capacity);
+            this.offsets = Arrays.copyOf(this.offsets, capacity);
+            this.lengths = Arrays.copyOf(this.lengths, capacity);
+        }
+        
+        /**
+         * Appends a transient byte span. Small byte spans are copied into a
+         * shared block, so that not every value needs its own array.
+         * @param data   bytes
+         * @param offset offset of the byte span
+         * @param length length of the byte span
+         */
+        @Override
+        public void copy(byte[] data, int offset, int length) {
+            
+            if (length <= 0)
+                return;
+            if (length > 1024) {
+                this.append(Arrays.copyOfRange(data, offset, offset +length));
+                return;
+            }
+            if (this.block == null
+                    || this.used +length > this.block.length) {
+                this.block = new byte[4096];
+                this.used  = 0;
+            }
+            System.arraycopy(data, offset, this.block, this.used, length);
+            this.append(this.block, this.used, length);
+            this.used += length;
+        }
+        
+        /**
+         * Appends all byte spans of another assembly to the output. The byte
+         * spans are only passed on as references.
+         * @param output output
+         */
+        private void transfer(Output output) {
+            for (int index = 0; index < this.count; index++)
+                if (this.buffers[index] != null)
+                    output.append(this.buffers[index], this.offsets[index], this.lengths[index]);
+                else output.append(this.chunks[index], this.offsets[index], this.lengths[index]);
+        }
+        
+        /**
+         * Returns the total size of all byte spans.
+         * @return the total size of all byte spans
+         */
+        private int size() {
+            return this.size;
+        }
+        
+        /**
+         * Creates the output, each byte is copied exactly once.
+         * @return the output as byte array
+         */
+        private byte[] toByteArray() {
+            
+            byte[] output = new byte[this.size];
+            this.fill(output, 0);
+            return output;
+        }
+        
+        /**
+         * Copies all byte spans in order into an array.
+         * @param output array
+         * @param offset start in the array
+         */
+        private void fill(byte[] output, int offset) {
+            
+            for (int index = 0, cursor = offset; index < this.count; index++) {
+                if (this.buffers[index] != null)
+                    Generator.slice(this.buffers[index], this.offsets[index], this.lengths[index])
+                            .get(output, cursor, this.lengths[index]);
+                else System.arraycopy(this.chunks[index], this.offsets[index], output, cursor, this.lengths[index]);
+                cursor += this.lengths[index];
+            }
+        }
+    }
+    
+    /**
+     * Output that forwards the byte spans directly to a data stream or a
+     * channel. Small byte spans are collected in a buffer, larger ones are
+     * written directly. Byte spans of buffers (e.g. mapped files) are passed
+     * to a channel without copying. Errors of the data stream or channel are
+     * forwarded as {@link UncheckedIOException}.
+     */
+    private static class Sink implements Output {
+        
+        /** Data stream */
+        private final OutputStream output;
+        
+        /** Channel (alternative to the data stream) */
+        private final WritableByteChannel channel;
+        
+        /** Buffer for small byte spans */
+        private final byte[] buffer;
+        
+        /** Number of bytes in the buffer */
+        private int count;
+
+        /**
+         * Constructor, creates a new output for the data stream.
+         * @param output data stream
+         */
+        private Sink(OutputStream output) {
+            
+            this.output  = output;
+            this.channel = null;
+            this.buffer  = new byte[8192];
+        }
+        
+        /**
+         * Constructor, creates a new output for the channel.
+         * @param channel channel
+         */
+        private Sink(WritableByteChannel channel) {
+            
+            this.output  = null;
+            this.channel = channel;
+            this.buffer  = new byte[8192];
+        }
+        
+        @Override
+        public void append(byte[] data, int offset, int length) {
+            
+            if (length <= 0)
+                return;
+            try {
+                if (length >= this.buffer.length) {
+                    this.flush();
+                    this.write(ByteBuffer.wrap(data, offset, length));
+                    return;
+                }
+                if (this.count +length > this.buffer.length)
+                    this.flush();
+                System.arraycopy(data, offset, this.buffer, this.count, length);
+                this.count += length;
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }
+        
+        @Override
+        public void append(ByteBuffer data, int offset, int length) {
+            
+            if (length <= 0)
+                return;
+            ByteBuffer buffer = Generator.slice(data, offset, length);
+            try {
+                if (this.channel != null
+                        && length >= this.buffer.length) {
+                    this.flush();
+                    this.write(buffer);
+                    return;
+                }
+                while (buffer.hasRemaining()) {
+                    if (this.count >= this.buffer.length)
+                        this.flush();
+                    int size = Math.min(buffer.remaining(), this.buffer.length -this.count);
+                    buffer.get(this.buffer, this.count, size);
+                    this.count += size;
+                }
+            } catch (IOException exception) {
+                throw new UncheckedIOException(exception);
+            }
+        }
+        
+        @Override
+        public void copy(byte[] data, int offset, int length) {
+            this.append(data, offset, length);
+        }
+        
+        /**
+         * Writes the remaining bytes of a buffer completely to the data
+         * stream or channel.
+         * @param  buffer buffer
+         * @throws IOException
+         *     In case of faulty access to the data stream or channel
+         */
+        private void write(ByteBuffer buffer)
+                throws IOException {
+            
+            if (this.channel == null) {
+                this.output.write(buffer.array(), buffer.arrayOffset() +buffer.position(), buffer.remaining());
+                return;
+            }
+            while (buffer.hasRemaining())
+                this.channel.write(buffer);
+        }
+        
+        /**
+         * Writes the bytes from the buffer to the data stream or channel.
+         * @throws IOException
+         *     In case of faulty access to the data stream or channel
+         */
+        private void flush()
+                throws IOException {
+            
+            if (this.count <= 0)
+                return;
+            this.write(ByteBuffer.wrap(this.buffer, 0, this.count));
+            this.count = 0;
+        }
+    }
+    
+    /**
+     * Output that copies the byte spans of arrays into another output, so
+     * that the data can be changed afterwards. Byte spans of buffers (e.g.
+     * mapped files of templates) are passed on unchanged.
+     */
+    private static class Retention implements Output {
+        
+        /** Output */
+        private final Output output;
+        
+        /**
+         * Constructor, creates a new copying output.
+         * @param output output
+         */
+        private Retention(Output output) {
+            this.output = output;
+        }
+        
+        @Override
+        public void append(byte[] data, int offset, int length) {
+            this.output.copy(data, offset, length);
+        }
+        
+        @Override
+        public void append(ByteBuffer data, int offset, int length) {
+            this.output.append(data, offset, length);
+        }
+        
+        @Override
+        public void copy(byte[] data, int offset, int length) {
+            this.output.copy(data, offset, length);
+        }
+    }
+    
+    /**
+     * Output that counts the bytes and passes the byte spans to another
+     * output unchanged.
+     */
+    private static class Meter implements Output {
+        
+        /** Output */
+        private final Output output;
+        
+        /** Number of bytes */
+        private long size;
+        
+        /**
+         * Constructor, creates a new counting output.
+         * @param output output
+         */
+        private Meter(Output output) {
+            this.output = output;
+        }
+        
+        @Override
+        public void append(byte[] data, int offset, int length) {
+            
+            this.size += Math.max(length, 0);
+            this.output.append(data, offset, length);
+        }
+        
+        @Override
+        public void append(ByteBuffer data, int offset, int length) {
+            
+            this.size += Math.max(length, 0);
+            this.output.append(data, offset, length);
+        }
+        
+        @Override
+        public void copy(byte[] data, int offset, int length) {
+            
+            this.size += Math.max(length, 0);
+            this.output.copy(data, offset, length);
+        }
+    }
+    
+    /**
+     * Asynchronous writing of an assembly into a channel in chunks of limited
+     * size. Small byte spans are collected in a buffer, larger ones are
+     * written directly as a chunk. The next chunk is only written when the
+     * previous one has been completed by the channel. Channels that complete
+     * directly in the calling thread do not lead to a recursion, the chunks
+     * are then written in a loop.
+     */
+    private static class Dispatch implements CompletionHandler<Integer, Void> {
+        
+        /** Size of a chunk */
+        private static final int CHUNK = 8192;
+        
+        /** Channel */
+        private final AsynchronousByteChannel channel;
+        
+        /** Assembly of the output */
+        private final Assembly assembly;
+        
+        /** Buffer for small byte spans */
+        private final ByteBuffer buffer;
+        
+        /** Future of the writing */
+        private final CompletableFuture<Void> future;
+        
+        /** Current chunk */
+        private ByteBuffer chunk;
+        
+        /** Index of the current byte span */
+        private int index;
+        
+        /** Already written bytes of the current byte span */
+        private int cursor;
+        
+        /** Number of outstanding continuations of the writing */
+        private final AtomicInteger continuations;
+        
+        /**
+         * Constructor, creates a new writing of the assembly into the channel.
+         * @param channel  channel
+         * @param assembly assembly of the output
+         */
+        private Dispatch(AsynchronousByteChannel channel, Assembly assembly) {
+            
+            this.channel  = channel;
+            this.assembly = assembly;
+            this.buffer   = ByteBuffer.allocate(CHUNK);
+            this.future   = new CompletableFuture<>();
+            this.continuations = new AtomicInteger();
+        }
+        
+        /**
+         * Starts the writing.
+         * @return the future of the writing
+         */
+        private CompletableFuture<Void> start() {
+            
+            this.proceed();
+            return this.future;
+        }
+        
+        /**
+         * Continues the writing. Only one thread writes at a time. If the
+         * channel completes a chunk while it is still being written (e.g. in
+         * the same thread), the writing thread continues with the next chunk
+         * in a loop instead of a recursive call.
+         */
+        private void proceed() {
+            
+            if (this.continuations.getAndIncrement() != 0)
+                return;
+            do {if (!this.next())
+                    return;
+            } while (this.continuations.decrementAndGet() > 0);
+        }
+        
+        /**
+         * Writes the rest of the current chunk or determines the next chunk.
+         * If all byte spans have been written, the future is completed.
+         * @return {@code true} if a chunk is being written
+         */
+        private boolean next() {
+            
+            if (this.chunk == null
+                    || !this.chunk.hasRemaining())
+                this.chunk = this.fill();
+            if (this.chunk == null) {
+                this.future.complete(null);
+                return false;
+            }
+            try {this.channel.write(this.chunk, null, this);
+            } catch (RuntimeException exception) {
+                this.future.completeExceptionally(exception);
+                return false;
+            }
+            return true;
+        }
+        
+        /**
+         * Determines the next chunk from the byte spans.
+         * @return the next chunk, otherwise {@code null}
+         */
+        private ByteBuffer fill() {
+            
+            Assembly assembly = this.assembly;
+            this.buffer.clear();
+            while (this.index < assembly.count
+                    && this.buffer.hasRemaining()) {
+                int offset = assembly.offsets[this.index] +this.cursor;
+                int length = Math.min(assembly.lengths[this.index] -this.cursor, this.buffer.remaining());
+                ByteBuffer span;
+                if (assembly.buffers[this.index] != null)
+                    span = Generator.slice(assembly.buffers[this.index], offset, length);
+                else span = ByteBuffer.wrap(assembly.chunks[this.index], offset, length);
+                this.cursor += length;
+                if (this.cursor >= assembly.lengths[this.index]) {
+                    this.cursor = 0;
+                    this.index++;
+                }
+                //byte spans with the size of a chunk are written directly
+                if (this.buffer.position() == 0
+                        && length == CHUNK)
+                    return span;
+                this.buffer.put(span);
+            }
+            this.buffer.flip();
+            return this.buffer.hasRemaining() ? this.buffer : null;
+        }
+
+        @Override
+        public void completed(Integer result, Void attachment) {
+            this.proceed();
+        }
+
+        @Override
+        public void failed(Throwable throwable, Void attachment) {
+            this.future.completeExceptionally(throwable);
+        }
+    }
+    
+    /**
+     * Output that writes the byte spans directly into a buffer.
+     * If the remaining space of the buffer is not sufficient, a
+     * {@link BufferOverflowException} occurs.
+     */
+    private static class Target implements Output {
+        
+        /** Buffer */
+        private final ByteBuffer buffer;
+        
+        /**
+         * Constructor, creates a new output for the buffer.
+         * @param buffer buffer
+         */
+        private Target(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+        
+        @Override
+        public void append(byte[] data, int offset, int length) {
+            this.buffer.put(data, offset, length);
+        }
+        
+        @Override
+        public void append(ByteBuffer data, int offset, int length) {
+            this.buffer.put(Generator.slice(data, offset, length));
+        }
+        
+        @Override
+        public void copy(byte[] data, int offset, int length) {
+            this.append(data, offset, length);
+        }
     }
 }
\ No newline at end of file
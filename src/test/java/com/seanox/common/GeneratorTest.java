@@ -21,11 +21,50 @@
 package com.seanox.common;
 
 import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URLEncoder;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousByteChannel;
+import java.nio.channels.Channels;
+import java.nio.channels.CompletionHandler;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EventObject;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import org.junit.Assert;
 import org.junit.jupiter.api.Assertions;
@@ -278,6 +317,1091 @@ public class GeneratorTest {
         Assert.assertEquals("22", new String(generator.extract()));
     }
     
+    @Test
+    public void testAcceptance_J() {
+
+        String template = "#[a]#[b]#[0x41]#[c]";
+        Generator generator = Generator.parse(template.getBytes());
+        Map<String, Object> values = new HashMap<>();
+        values.put("b", "#[0x42]");
+        generator.set(values);
+        values.put("c", "#[a]");
+        generator.set(values);
+        Assertions.assertEquals("#[0x42]A#[a]", new String(generator.extract()));
+        Assertions.assertEquals("#[0x42]A#[a]", new String(generator.extract()));
+    }
+    
+    @Test
+    public void testAcceptance_K() {
+
+        String template = "\u00e4\u00f6\u00fc12345678#[a]12345678#12345678[#[b-]#[0x4]#[c[[#[d]]]]#[c]#[e-1]";
+        Generator generator = Generator.parse(template.getBytes(StandardCharsets.UTF_8));
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", "A");
+        values.put("b-", "B");
+        values.put("c", new HashMap() {{
+            put("d", "D");
+        }});
+        values.put("e-1", "E");
+        generator.set(values);
+        Assertions.assertEquals("\u00e4\u00f6\u00fc12345678A12345678#12345678[DDE", new String(generator.extract(), StandardCharsets.UTF_8));
+    }
+    
+    @Test
+    public void testPerformance_4() {
+        
+        StringBuilder template = new StringBuilder();
+        for (int loop = 0; loop < 25000; loop++)
+            template.append("<tr><td class=\"name\">#[name]</td><td>#[0x20]</td><td>#[size[[#[value] bytes]]]</td></tr>\n");
+        byte[] model = template.toString().getBytes();
+        Timing timing = Timing.create(true);
+        for (int loop = 0; loop < 10; loop++)
+            Generator.parse(model);
+        timing.assertTimeIn(2500);
+    }
+    
+    @Test
+    public void testRender_1() throws Exception {
+        
+        Generator generator = Generator.parse(Resources.getCurrentTestClassResource("testAcceptance_0_1.txt"));
+        Hashtable<String, Object> values = new Hashtable<>();
+        values.put("missing", "#[0x41]");
+        values.put("sort", "x");
+        values.put("path", new Hashtable() {{
+            put("base", "1");
+            put("name", "2");
+        }});
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        generator.render(output, values);
+        String template = new String(generator.extract());
+        generator.set(values);
+        Assertions.assertEquals(new String(generator.extract()), new String(output.toByteArray()));
+        Assertions.assertTrue(!template.equals(new String(output.toByteArray())));
+    }
+    
+    @Test
+    public void testRender_2() throws Exception {
+        
+        Generator generator = Generator.parse(Resources.getCurrentTestClassResource("testAcceptance_0_1.txt"));
+        Hashtable<String, Object> values = new Hashtable<>();
+        values.put("case", "A1");
+        values.put("name", "A2");
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        generator.render(output, "FILE", values);
+        Assertions.assertEquals(new String(generator.extract("file", values)), new String(output.toByteArray()));
+        output.reset();
+        generator.render(output, "xxx", values);
+        generator.render(output, null, values);
+        Assertions.assertEquals(0, output.size());
+    }
+    
+    @Test
+    public void testIteration_1() throws Exception {
+        
+        String template = "A#[row[[-#[x]-]]]B#[row]C";
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int loop = 1; loop <= 3; loop++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("x", loop);
+            rows.add(row);
+        }
+        Generator generator = Generator.parse(template.getBytes());
+        Map<String, Object> values = new HashMap<>();
+        values.put("row", rows);
+        generator.set(values);
+        String expected = new String(generator.extract());
+        Assertions.assertEquals("A-1--2--3-B-1--2--3-C", expected);
+        
+        generator = Generator.parse(template.getBytes());
+        values.put("row", rows.iterator());
+        generator.set(values);
+        Assertions.assertEquals(expected, new String(generator.extract()));
+
+        generator = Generator.parse(template.getBytes());
+        values.put("row", rows.stream());
+        generator.set(values);
+        Assertions.assertEquals(expected, new String(generator.extract()));
+
+        generator = Generator.parse(template.getBytes());
+        values.put("row", (Iterable)() -> rows.iterator());
+        generator.set(values);
+        Assertions.assertEquals(expected, new String(generator.extract()));
+        
+        values.put("row", rows.stream());
+        Assertions.assertEquals("-1--2--3-", new String(Generator.parse(("#[x[[#[row[[-#[x]-]]]]]]").getBytes()).extract("x", values)));
+
+        for (Supplier<Object> supplier : Arrays.<Supplier<Object>>asList(rows::iterator, rows::stream)) {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            values.put("row", supplier.get());
+            Generator.parse(template.getBytes()).render(output, values);
+            Assertions.assertEquals(expected, new String(output.toByteArray()));
+            values.put("row", supplier.get());
+            Assertions.assertEquals("-1--2--3-|-1--2--3-", new String(Generator.parse(("#[s[[#[row[[-#[x]-]]]|#[row]]]]").getBytes()).extract("s", values)));
+        }
+    }
+    
+    @Test
+    public void testIteration_2() throws Exception {
+        
+        Generator generator = Generator.parse(Resources.getCurrentTestClassResource("testAcceptance_0_1.txt"));
+        boolean[] closed = new boolean[1];
+        Stream<Map<String, Object>> rows = IntStream.range(0, 200000).mapToObj((index) -> {
+            Map<String, Object> row = new HashMap<>();
+            row.put("case", "X" + index);
+            row.put("name", "A");
+            return row;
+        });
+        rows.onClose(() -> closed[0] = true);
+        Map<String, Object> values = new HashMap<>();
+        values.put("file", rows);
+        long[] size = new long[1];
+        OutputStream output = new OutputStream() {
+            @Override
+            public void write(int digit) {
+                size[0]++;
+            }
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                size[0] += length;
+            }
+        };
+        generator.render(output, values);
+        Assertions.assertTrue(closed[0]);
+        Assertions.assertTrue(size[0] > 200000L *70);
+
+        //the rows are rendered lazily, the output begins before the end
+        int[] pulled = new int[2];
+        Iterator<Map<String, Object>> iterator = IntStream.range(0, 100000).mapToObj((index) -> {
+            pulled[0]++;
+            return Collections.<String, Object>singletonMap("x", index);
+        }).iterator();
+        output = new OutputStream() {
+            @Override
+            public void write(int digit) {
+                this.write(new byte[] {(byte)digit}, 0, 1);
+            }
+            @Override
+            public void write(byte[] bytes, int offset, int length) {
+                if (pulled[1] == 0)
+                    pulled[1] = pulled[0];
+            }
+        };
+        values.put("row", iterator);
+        Generator.parse(("A#[row[[-#[x]-]]]B").getBytes()).render(output, values);
+        Assertions.assertEquals(100000, pulled[0]);
+        Assertions.assertTrue(pulled[1] > 0 && pulled[1] < 100000);
+    }
+    
+    @Test
+    public void testParallel_1() throws Exception {
+        
+        Generator.Template template = Generator.Template.parse(("A#[row[[-#[x]#[cell[[(#[y])]]]-]]]B").getBytes());
+        List<Map<String, Object>> rows = new ArrayList<>();
+        for (int loop = 0; loop < 20000; loop++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("x", loop);
+            row.put("cell", Arrays.asList(Collections.singletonMap("y", loop), String.valueOf(loop)));
+            rows.add(row);
+        }
+        Map<String, Object> values = new HashMap<>();
+        values.put("row", rows);
+        Generator generator = template.generator();
+        generator.set(values);
+        String expected = new String(generator.extract());
+        generator = template.generator();
+        generator.parallelize(1000);
+        generator.set(values);
+        Assertions.assertEquals(expected, new String(generator.extract()));
+        generator = template.generator();
+        generator.parallelize(1, new ForkJoinPool(3));
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        generator.render(output, values);
+        Assertions.assertEquals(expected, new String(output.toByteArray()));
+        Assertions.assertTrue(expected.startsWith("A-0(0)0-"));
+        Assertions.assertTrue(expected.endsWith("-19999(19999)19999-B"));
+    }
+
+    @Test
+    public void testEncoder_1() throws Exception {
+
+        String template = "<#[a:html]|#[a:JSON]|#[a:url]|#[a]|#[a:xxx]|#[b:html]>";
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", "<a href=\"#[x]\">'&'\\\n</a>");
+        values.put("b", "###");
+        Generator generator = Generator.parse(template.getBytes());
+        String expected = "<&lt;a href=&quot;#[x]&quot;&gt;&#39;&amp;&#39;\\\n&lt;/a&gt;"
+                + "|<a href=\\\"#[x]\\\">'&'\\\\\\n</a>"
+                + "|%3Ca%20href%3D%22%23%5Bx%5D%22%3E%27%26%27%5C%0A%3C%2Fa%3E"
+                + "|<a href=\"#[x]\">'&'\\\n</a>"
+                + "||###>";
+        generator.set(values);
+        Assertions.assertEquals(expected, new String(generator.extract()));
+        generator = Generator.parse(template.getBytes());
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        generator.render(output, values);
+        Assertions.assertEquals(expected, new String(output.toByteArray()));
+
+        generator = Generator.parse(("#[row[[#[x:html]]]]#[row:html]").getBytes());
+        values.put("row", Arrays.asList(Collections.singletonMap("x", "<1>"), "<2>", "<3>".getBytes()));
+        generator.set(values);
+        Assertions.assertEquals("&lt;1&gt;<2><3>&lt;1&gt;&lt;2&gt;&lt;3&gt;", new String(generator.extract()));
+    }
+
+    @Test
+    public void testCharset_1() throws Exception {
+
+        StringBuilder builder = new StringBuilder();
+        for (int loop = 0; loop < 1000; loop++)
+            builder.append("a\u00e4\u20ac").append(loop);
+        String text = builder.toString();
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", text);
+        values.put("b", 42);
+        for (Charset charset : Arrays.asList(StandardCharsets.UTF_8, StandardCharsets.ISO_8859_1,
+                StandardCharsets.US_ASCII, Charset.forName("windows-1252"))) {
+            byte[] model = ("<#[a]|#[b]|#[a:url]>").getBytes(charset);
+            Generator generator = Generator.parse(model, charset, null);
+            Assertions.assertEquals(charset, generator.template().charset());
+            String expected = "<" + text + "|42|" + URLEncoder.encode(text, charset.name()).replace("+", "%20") + ">";
+            expected = new String(expected.getBytes(charset), charset);
+            generator.set(values);
+            Assertions.assertArrayEquals(expected.getBytes(charset), generator.extract());
+            generator = Generator.parse(model, charset, null);
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            generator.render(output, values);
+            Assertions.assertArrayEquals(expected.getBytes(charset), output.toByteArray());
+        }
+        Assertions.assertEquals(Charset.defaultCharset(), Generator.parse(new byte[0]).template().charset());
+    }
+
+    @Test
+    public void testLazy_1() throws Exception {
+
+        int[] counter = new int[3];
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", (Supplier<String>)() -> "A" + ++counter[0]);
+        values.put("b", (Callable<String>)() -> "B" + ++counter[1]);
+        values.put("c", (Supplier<String>)() -> "C" + ++counter[2]);
+        values.put("x", (Supplier<Map<String, Object>>)() -> values);
+        values.put("row", (Supplier<List<Object>>)() -> Arrays.asList((Supplier<Map<String, Object>>)() -> values, "-"));
+        Generator generator = Generator.parse(("#[a]#[a]#[b]#[x[[(#[a]#[b])]]]#[row[[#[b]]]]#[row]").getBytes());
+        generator.set(values);
+        Assertions.assertEquals("A1A1B1(A2B2)B3-B3-", new String(generator.extract()));
+        Assertions.assertEquals(0, counter[2]);
+        Assertions.assertEquals("(A3B4)", new String(generator.extract("x", values)));
+        Assertions.assertEquals(0, counter[2]);
+
+        generator = Generator.parse(("#[a]|#[b]|#[c]").getBytes());
+        values.clear();
+        values.put("a", (Supplier<String>)() -> null);
+        values.put("b", (Callable<String>)() -> null);
+        values.put("c", null);
+        generator.set(values);
+        Assertions.assertEquals(Arrays.asList("a", "b", "c"), Collections.list(generator.placeholders()));
+        values.put("a", "A");
+        values.put("b", "B");
+        values.put("c", "C");
+        generator.set(values);
+        Assertions.assertEquals("A|B|C", new String(generator.extract()));
+
+        values.put("b", (Callable<String>)() -> {throw new IOException("failed");});
+        Assertions.assertThrows(RuntimeException.class, () -> Generator.parse(("#[b]").getBytes()).set(values));
+    }
+
+    @Test
+    public void testPlaceholders_1() {
+
+        Generator.Template template = Generator.Template.parse(("#[A]#[b:html]#[X[[#[c]#[y[[#[d]#[x]]]]#[a]]]]#[a]#[0x41]").getBytes());
+        Assertions.assertEquals(Arrays.asList("a", "b", "x"), Collections.list(template.placeholders()));
+        Assertions.assertEquals(Arrays.asList("c", "y", "a"), Collections.list(template.placeholders("X")));
+        Assertions.assertEquals(Arrays.asList("d", "x"), Collections.list(template.placeholders("y")));
+        Assertions.assertEquals(Collections.emptyList(), Collections.list(template.placeholders("z")));
+        Assertions.assertEquals(Collections.emptyList(), Collections.list(template.placeholders(null)));
+        Generator generator = template.generator();
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", "1");
+        values.put("x", Collections.emptyMap());
+        generator.set(values);
+        Assertions.assertEquals(Arrays.asList("b", "x"), Collections.list(generator.placeholders()));
+    }
+
+    @Test
+    public void testBinding_1() throws Exception {
+
+        Generator.Template template = Generator.Template.parse(("A#[x]#[row[[-#[X]#[y]-]]]#[z]B").getBytes());
+        Generator.Binding binding = template.binding();
+        int x = binding.slot("x");
+        int y = template.slot(" Y ");
+        Assertions.assertTrue(x >= 0 && y >= 0 && x != y);
+        Assertions.assertEquals(-1, template.slot("xxx"));
+        Assertions.assertEquals(-1, template.slot(null));
+        Assertions.assertEquals(template.slot("row"), binding.slot("ROW"));
+
+        Generator generator = template.generator();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int loop = 0; loop < 3; loop++) {
+            binding.set(x, loop).set(y, (Supplier<String>)() -> "s");
+            output.write(generator.extract("row", binding));
+        }
+        Assertions.assertTrue(binding.get(y) instanceof Supplier);
+        Assertions.assertEquals("-0s--1s--2s-", new String(output.toByteArray()));
+
+        binding.clear();
+        binding.put("Z", "z");
+        binding.put("xxx", "-");
+        Assertions.assertEquals(1, binding.size());
+        Assertions.assertEquals("z", binding.get("z"));
+        Assertions.assertNull(binding.get("xxx"));
+        generator.set(binding);
+        Assertions.assertEquals("AzB", new String(generator.extract()));
+
+        Map<String, Object> values = new HashMap<>(binding);
+        values.put("row", Collections.singletonList(binding.set(x, "1")));
+        Generator.Template other = Generator.Template.parse(("#[row[[#[x]]]]").getBytes());
+        Assertions.assertEquals("1", new String(other.generator().extract("row", binding)));
+        generator = template.generator();
+        generator.set(values);
+        Assertions.assertEquals("A-1-zB", new String(generator.extract()));
+    }
+
+    public static class Row {
+
+        private final String name;
+
+        private final long size;
+
+        private final boolean directory;
+
+        private Row(String name, long size, boolean directory) {
+            this.name = name;
+            this.size = size;
+            this.directory = directory;
+        }
+
+        public String getType() {
+            return this.directory ? "dir" : "file";
+        }
+
+        public boolean isDirectory() {
+            return this.directory;
+        }
+
+        public String getName() {
+            return "[" + this.name + "]";
+        }
+    }
+
+    private static class Bean extends Row {
+
+        private final Object rows;
+
+        private Bean(Object rows) {
+            super("bean", 0, false);
+            this.rows = rows;
+        }
+    }
+
+    private static class Counted extends Row {
+
+        private int calls;
+
+        private Counted() {
+            super("counted", 0, false);
+        }
+
+        @Override
+        public String getType() {
+            this.calls++;
+            return super.getType();
+        }
+    }
+
+    private static class Event extends EventObject {
+
+        private final String label;
+
+        private Event(Object source, String label) {
+            super(source);
+            this.label = label;
+        }
+    }
+
+    @Test
+    public void testBean_1() throws Exception {
+
+        String template = "#[rows[[#[NAME]:#[size]:#[type]:#[directory]:#[rows]|]]]#[name]";
+        List<Object> rows = Arrays.asList(new Row("a", 1, false), new Row("b", 22, true));
+        Generator generator = Generator.parse(template.getBytes());
+        Assertions.assertEquals("[a]:1:file:false:|", new String(generator.extract("rows", rows.get(0))));
+        generator.set(new Bean(rows));
+        Assertions.assertEquals("[a]:1:file:false:|[b]:22:dir:true:|[bean]", new String(generator.extract()));
+
+        generator = Generator.parse(template.getBytes());
+        generator.set("rows", rows.get(1));
+        Assertions.assertEquals("[b]:22:dir:true:|", new String(generator.extract()));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        Generator.parse(template.getBytes()).render(output, new Bean(rows.stream()));
+        Assertions.assertEquals("[a]:1:file:false:|[b]:22:dir:true:|[bean]", new String(output.toByteArray()));
+        output.reset();
+        Generator.parse(template.getBytes()).render(output, "rows", rows.get(0));
+        Assertions.assertEquals("[a]:1:file:false:|", new String(output.toByteArray()));
+
+        Map<String, Object> values = new HashMap<>();
+        values.put("rows", Arrays.asList("x", Thread.State.NEW, new Row("c", 3, false)));
+        generator = Generator.parse(template.getBytes());
+        generator.set(values);
+        Assertions.assertEquals("xNEW[c]:3:file:false:|", new String(generator.extract()));
+
+        Generator rejected = Generator.parse(("#[empty]#[bytes]#[name]").getBytes());
+        Assertions.assertThrows(IllegalArgumentException.class, () -> rejected.set((Object)"hello"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> rejected.set("rows", (Object)Integer.valueOf(1)));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Generator.parse(template.getBytes()).render(output, (Object)"rows"));
+
+        generator = Generator.parse(("#[label]|#[source]").getBytes());
+        generator.set(new Event("src", "L"));
+        Assertions.assertEquals("L|src", new String(generator.extract()));
+
+        Counted counted = new Counted();
+        generator = Generator.parse(template.getBytes());
+        generator.set(counted);
+        Assertions.assertEquals("[counted]", new String(generator.extract()));
+        Assertions.assertEquals(0, counted.calls);
+        Assertions.assertEquals("[counted]:0:file:false:|", new String(generator.extract("rows", counted)));
+        Assertions.assertEquals(1, counted.calls);
+    }
+
+    @Test
+    public void testIncremental_1() {
+
+        int[] counter = new int[1];
+        Generator generator = Generator.parse(("<#[a]|#[b]|#[row[[(#[x]#[c])]]]|#[c]>").getBytes());
+        Map<String, Object> values = new HashMap<>();
+        values.put("c", "C");
+        generator.set(values);
+        Generator.Incremental incremental = generator.incremental();
+
+        values.clear();
+        values.put("a", "A");
+        values.put("b", (Supplier<String>)() -> "B" + ++counter[0]);
+        values.put("row", Arrays.asList(Collections.singletonMap("x", "1"), Collections.singletonMap("x", "2")));
+        Assertions.assertEquals("<A|B1|(1)(2)|C>", new String(incremental.render(values)));
+        Assertions.assertEquals("[1+1, 3+2, 6+6]", incremental.regions().toString());
+
+        values.put("b", "B1");
+        values.put("row", Arrays.asList(Collections.singletonMap("x", "1"), Collections.singletonMap("x", "2")));
+        Assertions.assertEquals("<A|B1|(1)(2)|C>", new String(incremental.render(values)));
+        Assertions.assertEquals("[]", incremental.regions().toString());
+
+        values.put("a", "AAA".getBytes());
+        Assertions.assertEquals("<AAA|B1|(1)(2)|C>", new String(incremental.render(values)));
+        Assertions.assertEquals("[1+3]", incremental.regions().toString());
+        values.put("a", "AAA".getBytes());
+        values.put("row", Arrays.asList(Collections.singletonMap("x", "3")));
+        Assertions.assertEquals("<AAA|B1|(3)|C>", new String(incremental.render(values)));
+        Assertions.assertEquals("[8+3]", incremental.regions().toString());
+
+        values.put("row", Arrays.asList(Collections.singletonMap("x", "4")).iterator());
+        Assertions.assertEquals("<AAA|B1|(4)|C>", new String(incremental.render(values)));
+        Assertions.assertEquals("[8+3]", incremental.regions().toString());
+
+        values.put("a", "");
+        values.put("row", Arrays.asList(Collections.singletonMap("x", "4")));
+        Assertions.assertEquals("<|B1|(4)|C>", new String(incremental.render(values)));
+        Assertions.assertEquals("[1+0, 5+3]", incremental.regions().toString());
+        values.put("a", "AAA".getBytes());
+        Assertions.assertEquals("<AAA|B1|(4)|C>", new String(incremental.render(values)));
+        Assertions.assertEquals("[1+3]", incremental.regions().toString());
+        byte[] buffer = "AA".getBytes();
+        values.put("a", buffer);
+        Assertions.assertEquals("<AA|B1|(4)|C>", new String(incremental.render(values)));
+        Arrays.fill(buffer, (byte)'Z');
+        Assertions.assertEquals("<ZZ|B1|(4)|C>", new String(incremental.render(values)));
+        Assertions.assertEquals("[1+2]", incremental.regions().toString());
+
+        values.clear();
+        values.put("b", "-");
+        generator.set(values);
+        values.put("a", "A");
+        Assertions.assertEquals("<A|-|", new String(incremental.render(values)).substring(0, 5));
+        Assertions.assertEquals(new String(generator.extract()), new String(incremental.render(null)));
+    }
+
+    @Test
+    public void testEncoder_2() {
+
+        Map<String, Generator.Encoder> encoders = new HashMap<>();
+        encoders.put("Upper", (data, offset, length, output) ->
+                output.append(new String(data, offset, length).toUpperCase().getBytes()));
+        encoders.put("html", (data, offset, length, output) -> output.append("*".getBytes()));
+        Generator generator = Generator.parse(("#[a:upper]#[a:html]#[a:xml]").getBytes(), encoders);
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", "a<b");
+        generator.set(values);
+        Assertions.assertEquals("A<B*a&lt;b", new String(generator.extract()));
+
+        encoders.put("-x", encoders.get("html"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Generator.parse(new byte[0], encoders));
+        encoders.remove("-x");
+        encoders.put("x", null);
+        Assertions.assertThrows(NullPointerException.class, () -> Generator.parse(new byte[0], encoders));
+    }
+
+    @Test
+    public void testMapped_1() throws Exception {
+
+        char[] filler = new char[10000];
+        Arrays.fill(filler, '.');
+        byte[] model = ("A#[x]B#[row[[-#[x]-]]]C" + new String(filler) + "#[0x44]").getBytes();
+        Path path = Files.createTempFile("generator", ".txt");
+        try {
+            Files.write(path, model);
+            Generator generator = Generator.parse(path, null, null);
+            Map<String, Object> values = new HashMap<>();
+            values.put("x", "1");
+            values.put("row", Arrays.asList(values, values));
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            Generator.parse(model).render(output, values);
+            String expected = new String(output.toByteArray());
+            Assertions.assertTrue(expected.startsWith("A1B-1--1-C..."));
+
+            output.reset();
+            generator.render(Channels.newChannel(output), values);
+            Assertions.assertEquals(expected, new String(output.toByteArray()));
+
+            ByteBuffer buffer = ByteBuffer.allocateDirect(model.length *2);
+            generator.render(buffer, "row", values);
+            generator.render(buffer, values);
+            byte[] bytes = new byte[buffer.flip().remaining()];
+            buffer.get(bytes);
+            Assertions.assertEquals("-1-" + expected, new String(bytes));
+
+            Assertions.assertThrows(BufferOverflowException.class,
+                    () -> generator.render(ByteBuffer.allocate(10), values));
+
+            generator.set(values);
+            Assertions.assertEquals(expected, new String(generator.extract()));
+        } finally {
+            Files.delete(path);
+        }
+    }
+
+    @Test
+    public void testAsync_1() throws Exception {
+
+        char[] filler = new char[20000];
+        Arrays.fill(filler, '.');
+        Generator generator = Generator.parse(("A#[x]B" + new String(filler) + "#[row[[-#[x]-]]]C").getBytes());
+        Map<String, Object> values = new HashMap<>();
+        values.put("x", "1");
+        values.put("row", Arrays.asList(values, values));
+
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        List<Integer> chunks = Collections.synchronizedList(new ArrayList<>());
+        AsynchronousByteChannel channel = new AsynchronousByteChannel() {
+            @Override
+            public <A> void write(ByteBuffer source, A attachment, CompletionHandler<Integer, ? super A> handler) {
+                chunks.add(Integer.valueOf(source.remaining()));
+                CompletableFuture.runAsync(() -> {
+                    int length = Math.min(source.remaining(), 5000);
+                    byte[] bytes = new byte[length];
+                    source.get(bytes);
+                    output.write(bytes, 0, length);
+                    handler.completed(Integer.valueOf(length), attachment);
+                });
+            }
+            @Override
+            public Future<Integer> write(ByteBuffer source) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public <A> void read(ByteBuffer target, A attachment, CompletionHandler<Integer, ? super A> handler) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public Future<Integer> read(ByteBuffer target) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+            @Override
+            public void close() {
+            }
+        };
+
+        generator.render(channel, values).get();
+        Assertions.assertEquals("A1B" + new String(filler) + "-1--1-C", new String(output.toByteArray()));
+        Assertions.assertTrue(chunks.stream().allMatch(chunk -> chunk.intValue() <= 8192));
+
+        output.reset();
+        generator.render(channel, "row", values).get();
+        Assertions.assertEquals("-1-", new String(output.toByteArray()));
+
+        values.put("x", (Supplier)() -> {throw new IllegalStateException();});
+        Assertions.assertThrows(ExecutionException.class, () -> generator.render(channel, values).get());
+    }
+
+    @Test
+    public void testAsync_2() throws Exception {
+
+        char[] filler = new char[80];
+        Arrays.fill(filler, '.');
+        Generator generator = Generator.parse(("#[row[[" + new String(filler) + "]]]").getBytes());
+        Map<String, Object> values = new HashMap<>();
+        values.put("row", Collections.nCopies(200000, Collections.emptyMap()));
+
+        //the channel completes the writing directly in the calling thread
+        long[] size = new long[1];
+        AsynchronousByteChannel channel = new AsynchronousByteChannel() {
+            @Override
+            public <A> void write(ByteBuffer source, A attachment, CompletionHandler<Integer, ? super A> handler) {
+                int length = source.remaining();
+                source.position(source.limit());
+                size[0] += length;
+                handler.completed(Integer.valueOf(length), attachment);
+            }
+            @Override
+            public Future<Integer> write(ByteBuffer source) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public <A> void read(ByteBuffer target, A attachment, CompletionHandler<Integer, ? super A> handler) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public Future<Integer> read(ByteBuffer target) {
+                throw new UnsupportedOperationException();
+            }
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+            @Override
+            public void close() {
+            }
+        };
+
+        Throwable[] error = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {generator.render(channel, values).get();
+            } catch (Throwable throwable) {
+                error[0] = throwable;
+            }
+        }, "async", 256 *1024);
+        thread.start();
+        thread.join();
+        Assertions.assertNull(error[0]);
+        Assertions.assertEquals(200000L *80, size[0]);
+    }
+
+    @Test
+    public void testBuffers_1() throws Exception {
+
+        Generator.Template template = Generator.Template.parse(("A#[x]B#[row[[-#[x]-]]]C").getBytes());
+        Assertions.assertEquals(0, template.estimate(null));
+        Map<String, Object> values = new HashMap<>();
+        values.put("x", "1");
+        values.put("row", Arrays.asList(values, values));
+
+        Generator.Buffers buffers = new Generator.Buffers(2, 1024);
+        ByteBuffer buffer = template.generator().render(buffers, values);
+        Assertions.assertEquals(0, buffer.position());
+        Assertions.assertEquals("A1B-1--1-C", new String(buffer.array(), 0, buffer.limit()));
+        Assertions.assertEquals(16, buffer.capacity());
+        Assertions.assertEquals(10, template.estimate(null));
+        buffers.release(buffer);
+        Assertions.assertEquals(1, buffers.size());
+
+        ByteBuffer reused = template.generator().render(buffers, "Row", values);
+        Assertions.assertTrue(reused.array() == buffer.array());
+        Assertions.assertEquals("-1-", new String(reused.array(), 0, reused.limit()));
+        Assertions.assertEquals(3, template.estimate("row"));
+        Assertions.assertEquals(0, buffers.size());
+
+        buffers.release(ByteBuffer.allocate(2048));
+        buffers.release(ByteBuffer.allocateDirect(16));
+        Assertions.assertEquals(0, buffers.size());
+        Assertions.assertEquals(0, template.generator().render(buffers, "-", values).limit());
+
+        buffer = buffers.take(16);
+        buffers.release(buffer);
+        ByteBuffer released = buffer;
+        Assertions.assertThrows(IllegalArgumentException.class, () -> buffers.release(released));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> buffers.release(released.duplicate()));
+        Assertions.assertEquals(1, buffers.size());
+
+        for (int loop = 0; loop < 100; loop++) {
+            template.generator().render(buffers, "unknown" + loop, values);
+            template.generator().extract("unknown" + loop, values);
+        }
+        Assertions.assertEquals(0, template.estimate("unknown0"));
+        Assertions.assertEquals(new TreeSet<>(Arrays.asList("", "row")),
+                new TreeSet<>(((Map<String, ?>)Accession.get(template, "estimates")).keySet()));
+    }
+
+    @Test
+    public void testMetrics_1() throws Exception {
+
+        Generator.Template template = Generator.Template.parse(("A#[x]B#[y]#[row[[-#[x]-]]]C").getBytes());
+        Map<String, Object> values = new HashMap<>();
+        values.put("x", "1");
+        values.put("row", Arrays.asList(values, values, values));
+        template.generator().render(new ByteArrayOutputStream(), values);
+        Assertions.assertTrue(template.metrics().snapshot().isEmpty());
+
+        Generator generator = template.generator();
+        generator.render(new ByteArrayOutputStream(), values);
+        generator.render(new ByteArrayOutputStream(), values);
+        Generator.Snapshot model = template.metrics().snapshot(null);
+        Assertions.assertNull(model.getScope());
+        Assertions.assertEquals(2, model.getRenders());
+        Assertions.assertEquals(26, model.getBytes());
+        Assertions.assertEquals(2, model.getUnresolved());
+        Assertions.assertEquals(2, Arrays.stream(model.getLatencies()).sum());
+        Generator.Snapshot row = template.metrics().snapshot("Row");
+        Assertions.assertEquals("row", row.getScope());
+        Assertions.assertEquals(6, row.getRenders());
+        Assertions.assertEquals(6, row.getRows());
+        Assertions.assertEquals(18, row.getBytes());
+        Assertions.assertEquals(2, template.metrics().snapshot().size());
+
+        ObjectName name = template.metrics().register("testMetrics_1");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            Assertions.assertEquals(Long.valueOf(2), server.getAttribute(name, "Renders"));
+            Assertions.assertEquals(2, ((String[])server.getAttribute(name, "Statistics")).length);
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+    }
+
+    @Test
+    public void testAppend_1() {
+
+        Generator generator = Generator.parse(("A#[x]#[row[[-#[x]-]]]#[row:html]B").getBytes());
+        Map<String, Object> values = new HashMap<>();
+        for (int loop = 0; loop < 10000; loop++) {
+            values.put("x", loop < 2 ? "<" + loop + ">" : String.valueOf(loop));
+            generator.set("row", values);
+        }
+        String output = new String(generator.extract());
+        Assertions.assertTrue(output.startsWith("A-<0>--<1>--2--3-"));
+        Assertions.assertTrue(output.endsWith("-9998--9999-B"));
+        Assertions.assertTrue(output.contains("-9999--&lt;0&gt;-"));
+
+        generator = Generator.parse(("A#[x]#[row[[-#[x]-]]]B").getBytes());
+        values.put("x", "1");
+        generator.set("row", values);
+        generator.set(values);
+        values.put("x", "2");
+        generator.set("row", values);
+        Assertions.assertEquals(Arrays.asList("row"), Collections.list(generator.placeholders()));
+        Assertions.assertEquals("A1-1--2-B", new String(generator.extract()));
+
+        generator = Generator.parse(("#[row[[<#[x]>]]]").getBytes());
+        byte[] buffer = "AA".getBytes();
+        values.put("x", buffer);
+        generator.set("row", values);
+        Arrays.fill(buffer, (byte)'Z');
+        generator.set("row", values);
+        Assertions.assertEquals("<AA><ZZ>", new String(generator.extract()));
+    }
+
+    @Test
+    public void testConverter_1() {
+
+        Generator.Template template = Generator.Template.parse(("#[a]|#[b]|#[c]|#[d]|#[e]|#[f:html]").getBytes());
+        Map<String, Object> values = new HashMap<>();
+        values.put("a", 0);
+        values.put("b", -123L);
+        values.put("c", Long.MIN_VALUE);
+        values.put("d", Integer.MAX_VALUE);
+        values.put("e", 1.5);
+        values.put("f", Instant.EPOCH);
+        Generator generator = template.generator();
+        generator.set(values);
+        Assertions.assertEquals("0|-123|" + Long.MIN_VALUE + "|" + Integer.MAX_VALUE + "|1.5|1970-01-01T00:00:00Z",
+                new String(generator.extract()));
+
+        template = template
+                .converter(Double.class, (value, charset, output) -> output.append("~" + Math.round(value), charset))
+                .converter(Instant.class, Generator.Converter.format(
+                        DateTimeFormatter.ofPattern("<yyyy-MM-dd>").withZone(ZoneOffset.UTC)));
+        generator = template.generator();
+        generator.set(values);
+        Assertions.assertEquals("0|-123|" + Long.MIN_VALUE + "|" + Integer.MAX_VALUE + "|~2|&lt;1970-01-01&gt;",
+                new String(generator.extract()));
+
+        template = template.converter(Long.class, null);
+        values.put("b", Long.valueOf(7));
+        generator = template.generator();
+        generator.set(values);
+        Assertions.assertEquals("0|7|" + Long.MIN_VALUE + "|" + Integer.MAX_VALUE + "|~2|&lt;1970-01-01&gt;",
+                new String(generator.extract()));
+
+        template = Generator.Template.parse(("#[a]|#[b]").getBytes());
+        Generator.Metrics metrics = template.metrics();
+        Generator.Binding binding = template.binding();
+        binding.put("a", Instant.EPOCH);
+        binding.put("b", LocalDate.of(2020, 1, 1));
+        template = template.converter(TemporalAccessor.class, Generator.Converter.format(
+                DateTimeFormatter.ofPattern("yyyy").withZone(ZoneOffset.UTC)));
+        generator = template.generator();
+        generator.set(binding);
+        Assertions.assertEquals("1970|2020", new String(generator.extract()));
+        Assertions.assertSame(metrics, template.metrics());
+        Assertions.assertEquals(1, metrics.getRenders());
+    }
+
+    @Test
+    public void testMemo_1() {
+
+        Generator.Memo memo = new Generator.Memo(2, 1024);
+        Generator generator = Generator.parse(("A#[row[[-#[x]#[y]-]]]#[z]B").getBytes());
+        generator.memoize(memo);
+        Map<String, Object> values = new HashMap<>();
+        values.put("x", "1");
+        values.put("z", new ArrayList<>());
+        byte[] output = generator.extract("row", values);
+        Assertions.assertEquals("-1-", new String(output));
+        output[0] = '*';
+        Assertions.assertEquals("-1-", new String(generator.extract("row", values)));
+        Assertions.assertEquals(1, memo.hits());
+        Assertions.assertEquals(1, memo.misses());
+        Assertions.assertEquals(1, memo.size());
+        Assertions.assertEquals(3, memo.volume());
+
+        Assertions.assertEquals("-1-", new String(generator.extract("row", values, false)));
+        values.put("y", new StringBuilder("2"));
+        Assertions.assertEquals("-12-", new String(generator.extract("row", values)));
+        Assertions.assertEquals(1, memo.hits());
+        Assertions.assertEquals(1, memo.misses());
+
+        values.put("y", 2);
+        generator.extract("row", values);
+        values.put("y", 3);
+        generator.extract("row", values);
+        Assertions.assertEquals(3, memo.misses());
+        Assertions.assertEquals(2, memo.size());
+        values.remove("y");
+        Assertions.assertEquals("-1-", new String(generator.extract("row", values)));
+        Assertions.assertEquals(4, memo.misses());
+        memo.clear();
+        Assertions.assertEquals(0, memo.size());
+        Assertions.assertEquals(0, memo.volume());
+
+        byte[] buffer = "AA".getBytes();
+        values.put("y", buffer);
+        Assertions.assertEquals("-1AA-", new String(generator.extract("row", values)));
+        values.put("y", "AA".getBytes());
+        Assertions.assertEquals("-1AA-", new String(generator.extract("row", values)));
+        Assertions.assertEquals(2, memo.hits());
+        Arrays.fill(buffer, (byte)'Z');
+        values.put("y", buffer);
+        Assertions.assertEquals("-1ZZ-", new String(generator.extract("row", values)));
+        Assertions.assertEquals(6, memo.misses());
+    }
+
+    @Test
+    public void testFork_1() {
+
+        Generator generator = Generator.parse(("#[head]|#[body]|#[row[[#[x]]]]").getBytes());
+        Map<String, Object> values = new HashMap<>();
+        values.put("head", "H");
+        generator.set(values);
+        values.put("x", "1");
+        generator.set("row", values);
+
+        Generator fork = generator.fork();
+        values.clear();
+        values.put("body", "B");
+        fork.set(values);
+        values.put("x", "2");
+        fork.set("row", values);
+        Assertions.assertEquals("H|B|12", new String(fork.extract()));
+        Assertions.assertEquals("H||1", new String(generator.extract()));
+
+        values.put("x", "3");
+        generator.set("row", values);
+        Assertions.assertEquals("H||13", new String(generator.extract()));
+        Assertions.assertEquals("H|B|12", new String(fork.extract()));
+        Assertions.assertEquals("H||13", new String(generator.fork().extract()));
+    }
+
+    @Test
+    public void testLoad_1() throws Exception {
+
+        Path directory = Files.createTempDirectory("generator");
+        Path source = directory.resolve("source.txt");
+        Path compiled = directory.resolve("source.bin");
+        try {
+            Files.write(source, ("A#[x:html]#[0x42]#[row[[-#[x]-]]]C").getBytes());
+            Map<String, Object> values = new HashMap<>();
+            values.put("x", "<1>");
+            values.put("row", Arrays.asList(values, values));
+
+            Generator.Template template = Generator.Template.load(source, compiled, null, null);
+            Assertions.assertTrue(Files.size(compiled) > 0);
+            Generator generator = template.generator();
+            generator.set(values);
+            Assertions.assertEquals("A&lt;1&gt;B-<1>--<1>-C", new String(generator.extract()));
+
+            Object key = Files.readAttributes(compiled, BasicFileAttributes.class).fileKey();
+            generator = Generator.Template.load(source, compiled, null, null).generator();
+            Assertions.assertEquals(key, Files.readAttributes(compiled, BasicFileAttributes.class).fileKey());
+            generator.set(values);
+            Assertions.assertEquals("A&lt;1&gt;B-<1>--<1>-C", new String(generator.extract()));
+            Assertions.assertEquals("-<1>-", new String(generator.extract("row", values)));
+
+            Files.write(source, ("D#[x]E").getBytes());
+            generator = Generator.Template.load(source, compiled, null, null).generator();
+            generator.set(values);
+            Assertions.assertEquals("D<1>E", new String(generator.extract()));
+
+            Files.write(compiled, ("invalid").getBytes());
+            generator = Generator.Template.load(source, compiled, null, null).generator();
+            generator.set(values);
+            Assertions.assertEquals("D<1>E", new String(generator.extract()));
+            Assertions.assertTrue(Files.size(compiled) > 7);
+
+            //damaged data is detected by the checksum of the compiled data,
+            //invalid counts with a matching checksum by the checks
+            byte[] bytes = Files.readAllBytes(compiled);
+            bytes[bytes.length -1] ^= 0x55;
+            Files.write(compiled, bytes);
+            generator = Generator.Template.load(source, compiled, null, null).generator();
+            generator.set(values);
+            Assertions.assertEquals("D<1>E", new String(generator.extract()));
+            bytes = Files.readAllBytes(compiled);
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            buffer.putInt(24 +buffer.getInt(20), Integer.MAX_VALUE);
+            CRC32 crc = new CRC32();
+            crc.update(bytes, 20, bytes.length -20);
+            buffer.putLong(12, crc.getValue());
+            Files.write(compiled, bytes);
+            generator = Generator.Template.load(source, compiled, null, null).generator();
+            generator.set(values);
+            Assertions.assertEquals("D<1>E", new String(generator.extract()));
+            Assertions.assertFalse(Arrays.equals(bytes, Files.readAllBytes(compiled)));
+
+            //names longer than 32767 characters are retained
+            char[] name = new char[40000];
+            Arrays.fill(name, 'n');
+            Files.write(source, ("F#[" + new String(name) + "]G").getBytes());
+            Generator.Template.load(source, compiled, null, null);
+            Assertions.assertEquals(Arrays.asList(new String(name)),
+                    Collections.list(Generator.Template.load(source, compiled, null, null).placeholders()));
+
+            //if the compiled file cannot be written, the source is used
+            generator = Generator.Template.load(source, directory.resolve("missing/source.bin"), null, null).generator();
+            Assertions.assertEquals("FG", new String(generator.extract()));
+        } finally {
+            Files.deleteIfExists(source);
+            Files.deleteIfExists(compiled);
+            Files.delete(directory);
+        }
+    }
+
+    @Test
+    public void testTemplate_1() throws Exception {
+        
+        byte[] model = ("A#[x]B#[row[[-#[x]-]]]C").getBytes();
+        Generator.Template template = Generator.Template.parse(model);
+        model[0] = 'Z';
+        Generator generator1 = template.generator();
+        Generator generator2 = template.generator();
+        Map<String, Object> values = new HashMap<>();
+        values.put("x", "1");
+        generator1.set("row", values);
+        generator1.set(values);
+        Assertions.assertEquals("A1B-1-C", new String(generator1.extract()));
+        Assertions.assertEquals("ABC", new String(generator2.extract()));
+        Assertions.assertEquals("ABC", new String(template.generator().extract()));
+    }
+    
+    @Test
+    public void testTemplate_2() throws Exception {
+        
+        Generator.Template template = Generator.Template.parse(Resources.getCurrentTestClassResource("testAcceptance_0_1.txt"));
+        String expected = Resources.getCurrentTestClassResourcePlain("testAcceptance_4_2.txt");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<String>> results = new ArrayList<>();
+        for (int loop = 0; loop < 200; loop++) {
+            results.add(executor.submit(() -> {
+                Generator generator = template.generator();
+                Hashtable<String, Object> values = new Hashtable<>();
+                String path = new String();
+                for (String entry : ("/1/22/333/4444/55555").split("/")) {
+                    path = path.concat(entry);
+                    values.put("base", path);
+                    values.put("name", entry);
+                    generator.set("path", values);
+                }
+                return new String(generator.extract());
+            }));
+        }
+        executor.shutdown();
+        for (Future<String> result : results)
+            Assertions.assertEquals(expected, result.get());
+    }
+    
+    @Test
+    public void testCache_1() throws Exception {
+        
+        Path path = Files.createTempFile("generator", ".txt");
+        try {
+            Files.write(path, ("A#[x]B").getBytes());
+            Generator.Cache cache = new Generator.Cache(10, 1024);
+            Generator.Template template = cache.get(path);
+            Assertions.assertTrue(template == cache.get(path));
+            Assertions.assertEquals(1, cache.size());
+            Assertions.assertEquals(6, cache.volume());
+            Files.write(path, ("C#[x]D#[y]").getBytes());
+            Generator.Template changed = cache.get(path);
+            Assertions.assertTrue(template != changed);
+            Assertions.assertEquals("CD", new String(changed.generator().extract()));
+            Assertions.assertEquals(1, cache.size());
+            Assertions.assertEquals(10, cache.volume());
+            cache.remove(path);
+            Assertions.assertEquals(0, cache.size());
+            Assertions.assertEquals(0, cache.volume());
+        } finally {
+            Files.delete(path);
+        }
+    }
+    
+    @Test
+    public void testCache_2() throws Exception {
+        
+        Path[] paths = new Path[4];
+        try {
+            for (int loop = 0; loop < paths.length; loop++) {
+                paths[loop] = Files.createTempFile("generator", ".txt");
+                Files.write(paths[loop], ("0123456789").getBytes());
+            }
+            Generator.Cache cache = new Generator.Cache(2, 25);
+            Generator.Template template = cache.get(paths[0]);
+            cache.get(paths[1]);
+            Assertions.assertTrue(template == cache.get(paths[0]));
+            cache.get(paths[2]);
+            Assertions.assertEquals(2, cache.size());
+            Assertions.assertTrue(template == cache.get(paths[0]));
+            Files.write(paths[3], new byte[30]);
+            cache.get(paths[3]);
+            Assertions.assertEquals(2, cache.size());
+            Assertions.assertEquals(20, cache.volume());
+            Assertions.assertTrue(template == cache.get(paths[0]));
+            cache.clear();
+            Assertions.assertEquals(0, cache.size());
+        } finally {
+            for (Path path : paths)
+                if (path != null)
+                    Files.delete(path);
+        }
+    }
+    
     @Test
     public void testPerformance_1() throws Exception {
         
@@ -319,6 +1443,30 @@ public class GeneratorTest {
         timing.assertTimeIn(2500);
     }
     
+    @Test
+    public void testPerformance_3() {
+        
+        Generator generator = Generator.parse(Resources.getCurrentTestClassResource("testAcceptance_0_1.txt"));
+        ArrayList<Map<String, Object>> files = new ArrayList<>();
+        for (long loop = 1; loop < 25000; loop++) {
+            Hashtable<String, Object> values = new Hashtable<>();
+            values.put("case", "X" + loop);
+            values.put("name", "A");
+            values.put("date", "B");
+            values.put("size", "C");
+            values.put("type", "D");
+            values.put("mime", "E");
+            files.add(values);
+        }
+        Hashtable<String, Object> values = new Hashtable<>();
+        values.put("file", files);
+        Timing timing = Timing.create(true);
+        generator.set(values);
+        byte[] result = generator.extract();
+        timing.assertTimeIn(1500);
+        Assertions.assertTrue(result.length > 25000 *80);
+    }
+    
     @Test
     public void testRecursion_1() {
         